@@ -0,0 +1,184 @@
+package scottf;
+
+/**
+ * Writes the ascii form of numbers directly into byte arrays.
+ * Digits are always written backwards from an end position,
+ * so callers size first, then write.
+ */
+abstract class AsciiNumbers {
+    // scaled doubles at or past this might not fit in a long once rounded
+    static final double MAX_SCALED_DOUBLE = 9.0e18;
+
+    static final byte[] HEX = "0123456789abcdef".getBytes();
+
+    static final long[] POW10 = {
+        1L, 10L, 100L, 1_000L, 10_000L, 100_000L, 1_000_000L, 10_000_000L, 100_000_000L, 1_000_000_000L,
+        10_000_000_000L, 100_000_000_000L, 1_000_000_000_000L, 10_000_000_000_000L, 100_000_000_000_000L,
+        1_000_000_000_000_000L, 10_000_000_000_000_000L, 100_000_000_000_000_000L, 1_000_000_000_000_000_000L
+    };
+
+    // "00", "01" ... "99" so two digits are written per division
+    private static final byte[] DIGIT_PAIRS = new byte[200];
+    static {
+        for (int x = 0; x < 100; x++) {
+            DIGIT_PAIRS[x * 2] = (byte)('0' + x / 10);
+            DIGIT_PAIRS[x * 2 + 1] = (byte)('0' + x % 10);
+        }
+    }
+
+    /**
+     * The number of digits in a value, not counting any sign
+     * @param v the value
+     * @return the number of digits
+     */
+    static int digits(long v) {
+        // work in the negative so Long.MIN_VALUE does not overflow
+        long neg = v < 0 ? v : -v;
+        long p = -10;
+        for (int i = 1; i < 19; i++) {
+            if (neg > p) {
+                return i;
+            }
+            p = 10 * p;
+        }
+        return 19;
+    }
+
+    /**
+     * The number of bytes needed to write a signed value, including the sign
+     * @param v the value
+     * @return the number of bytes
+     */
+    static int size(long v) {
+        return v < 0 ? digits(v) + 1 : digits(v);
+    }
+
+    /**
+     * The number of bytes needed to write a value treated as unsigned
+     * @param v the value
+     * @return the number of bytes
+     */
+    static int unsignedSize(long v) {
+        // anything with the high bit set is the unsigned quotient of dividing by 10 plus the last digit
+        return v < 0 ? digits((v >>> 1) / 5) + 1 : digits(v);
+    }
+
+    /**
+     * The number of hex digits needed to write a value treated as unsigned
+     * @param v the value
+     * @return the number of hex digits, at least 1
+     */
+    static int hexSize(long v) {
+        return v == 0 ? 1 : (67 - Long.numberOfLeadingZeros(v)) / 4;
+    }
+
+    /**
+     * Write the signed value so that its last byte is just before end
+     * @param dest the destination
+     * @param end the exclusive end position
+     * @param v the value
+     * @return the start position of what was written
+     */
+    static int putLong(byte[] dest, int end, long v) {
+        if (v < 0) {
+            int p = putDigits(dest, end, v);
+            dest[--p] = '-';
+            return p;
+        }
+        return putDigits(dest, end, -v);
+    }
+
+    /**
+     * Write the value treated as unsigned so that its last byte is just before end
+     * @param dest the destination
+     * @param end the exclusive end position
+     * @param v the value
+     * @return the start position of what was written
+     */
+    static int putUnsigned(byte[] dest, int end, long v) {
+        if (v >= 0) {
+            return putDigits(dest, end, -v);
+        }
+        long q = (v >>> 1) / 5; // unsigned divide by 10
+        dest[end - 1] = (byte)('0' + (v - q * 10));
+        return putDigits(dest, end - 1, -q);
+    }
+
+    /**
+     * Write exactly the number of hex digits of the value (lower case)
+     * so that its last byte is just before end
+     * @param dest the destination
+     * @param end the exclusive end position
+     * @param v the value
+     * @param hexDigits the number of hex digits to write
+     * @return the start position of what was written
+     */
+    static int putHex(byte[] dest, int end, long v, int hexDigits) {
+        int p = end;
+        for (int x = 0; x < hexDigits; x++) {
+            dest[--p] = HEX[(int)(v & 0xF)];
+            v >>>= 4;
+        }
+        return p;
+    }
+
+    /**
+     * Write the digits of a value that is zero or negative, without the sign
+     * @param dest the destination
+     * @param end the exclusive end position
+     * @param neg the value, must be zero or negative
+     * @return the start position of what was written
+     */
+    static int putDigits(byte[] dest, int end, long neg) {
+        int p = end;
+        while (neg <= -100) {
+            long q = neg / 100;
+            int r = (int)((q * 100) - neg) * 2;
+            dest[--p] = DIGIT_PAIRS[r + 1];
+            dest[--p] = DIGIT_PAIRS[r];
+            neg = q;
+        }
+        int r = (int)-neg;
+        if (r >= 10) {
+            dest[--p] = DIGIT_PAIRS[r * 2 + 1];
+            dest[--p] = DIGIT_PAIRS[r * 2];
+        }
+        else {
+            dest[--p] = (byte)('0' + r);
+        }
+        return p;
+    }
+
+    /**
+     * Write zeros
+     * @param dest the destination
+     * @param start the start position
+     * @param count the number of zeros
+     */
+    static void putZeros(byte[] dest, int start, int count) {
+        for (int x = 0; x < count; x++) {
+            dest[start + x] = '0';
+        }
+    }
+
+    /**
+     * Append exactly count digits of a value that is zero or negative, most significant first,
+     * without the sign. Digits past the digits in the value are leading zeros.
+     * For appenders that can't be written backwards.
+     * @param out the appender
+     * @param neg the value, must be zero or negative
+     * @param count the number of digits
+     */
+    static void appendDigits(ByteAppender out, long neg, int count) {
+        for (int p = count - 1; p >= 0; p--) {
+            if (p >= POW10.length) {
+                out.append((byte)'0');
+            }
+            else {
+                long d = neg / POW10[p];
+                out.append((byte)('0' - d));
+                neg -= d * POW10[p];
+            }
+        }
+    }
+}
@@ -0,0 +1,184 @@
+package scottf;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.zip.ZipException;
+
+/**
+ * The index of a block gzip file, the uncompressed offset and compressed offset where each block starts,
+ * see {@link BlockGZipWriter}. It is written and read as a sidecar file in the BGZF .gzi layout:
+ * the number of entries then each entry as the compressed and uncompressed offset,
+ * all little endian 64 bit, leaving out the first block which is always at 0, 0.
+ * If there is no sidecar, it can be rebuilt from the block headers.
+ */
+public class BlockGZipIndex {
+    public static final String SIDECAR_SUFFIX = ".gzi";
+    static final int BLOCK_HEADER_LENGTH = 18;
+    // the block size field is 16 bits holding the size less one
+    static final int MAX_BLOCK_LENGTH = 0x10000;
+
+    private long[] compressed;
+    private long[] uncompressed;
+    private int size;
+    private long length;
+
+    public BlockGZipIndex() {
+        compressed = new long[64];
+        uncompressed = new long[64];
+    }
+
+    void add(long compressedOffset, long uncompressedOffset) {
+        if (size == compressed.length) {
+            compressed = Arrays.copyOf(compressed, size * 2);
+            uncompressed = Arrays.copyOf(uncompressed, size * 2);
+        }
+        compressed[size] = compressedOffset;
+        uncompressed[size] = uncompressedOffset;
+        size++;
+    }
+
+    void setLength(long length) {
+        this.length = length;
+    }
+
+    /**
+     * The number of blocks with data
+     * @return the number of blocks
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * The total uncompressed length
+     * @return the length
+     */
+    public long length() {
+        return length;
+    }
+
+    public long getCompressedOffset(int block) {
+        return compressed[block];
+    }
+
+    public long getUncompressedOffset(int block) {
+        return uncompressed[block];
+    }
+
+    /**
+     * The uncompressed length of a block
+     * @param block the block
+     * @return the length
+     */
+    public int getBlockLength(int block) {
+        return (int)((block + 1 < size ? uncompressed[block + 1] : length) - uncompressed[block]);
+    }
+
+    /**
+     * Find the block that holds an uncompressed offset
+     * @param offset the uncompressed offset
+     * @return the block, or -1 if the offset is past the end
+     */
+    public int blockOf(long offset) {
+        if (offset < 0 || offset >= length) {
+            return -1;
+        }
+        int i = Arrays.binarySearch(uncompressed, 0, size, offset);
+        return i >= 0 ? i : -i - 2;
+    }
+
+    /**
+     * Write the index as a BGZF .gzi sidecar file
+     * @param path the file
+     * @throws IOException if the file cannot be written
+     */
+    public void write(Path path) throws IOException {
+        int entries = Math.max(0, size - 1);
+        ByteBuffer bb = ByteBuffer.allocate(8 + entries * 16).order(ByteOrder.LITTLE_ENDIAN);
+        bb.putLong(entries);
+        for (int x = 1; x < size; x++) {
+            bb.putLong(compressed[x]).putLong(uncompressed[x]);
+        }
+        Files.write(path, bb.array());
+    }
+
+    /**
+     * Read a BGZF .gzi sidecar file. The total length isn't in the sidecar, it comes from the last block.
+     * @param path the sidecar file
+     * @param channel the block gzip file
+     * @return the index
+     * @throws IOException if either file cannot be read
+     */
+    public static BlockGZipIndex read(Path path, FileChannel channel) throws IOException {
+        ByteBuffer bb = ByteBuffer.wrap(Files.readAllBytes(path)).order(ByteOrder.LITTLE_ENDIAN);
+        long entries = bb.getLong();
+        if (entries < 0 || entries * 16 != bb.remaining()) {
+            throw new ZipException("Malformed block gzip index.");
+        }
+        BlockGZipIndex index = new BlockGZipIndex();
+        index.add(0, 0);
+        for (long x = 0; x < entries; x++) {
+            index.add(bb.getLong(), bb.getLong());
+        }
+        long last = index.compressed[index.size - 1];
+        ByteBuffer header = readFully(channel, last, BLOCK_HEADER_LENGTH);
+        int blockSize = blockSize(header);
+        index.setLength(index.uncompressed[index.size - 1] + (readFully(channel, last + blockSize - 4, 4).getInt() & 0xffffffffL));
+        if (index.length == 0) {
+            // only the empty end of file block, which build leaves out too
+            index.size = 0;
+        }
+        return index;
+    }
+
+    /**
+     * Build the index by hopping from block header to block header, reading only the header and size of each block
+     * @param channel the block gzip file
+     * @return the index
+     * @throws IOException if the file cannot be read or is not block gzip
+     */
+    public static BlockGZipIndex build(FileChannel channel) throws IOException {
+        BlockGZipIndex index = new BlockGZipIndex();
+        long fileSize = channel.size();
+        long pos = 0;
+        long u = 0;
+        while (pos < fileSize) {
+            int blockSize = blockSize(readFully(channel, pos, BLOCK_HEADER_LENGTH));
+            long isize = readFully(channel, pos + blockSize - 4, 4).getInt() & 0xffffffffL;
+            if (isize > 0) {
+                index.add(pos, u);
+                u += isize;
+            }
+            pos += blockSize;
+        }
+        index.setLength(u);
+        return index;
+    }
+
+    // the whole size of the block from the BC extra field in the header
+    static int blockSize(ByteBuffer header) throws IOException {
+        if ((header.getShort(0) & 0xffff) != 0x8b1f || header.get(3) != 4
+            || header.get(12) != 'B' || header.get(13) != 'C' || header.getShort(14) != 2)
+        {
+            throw new ZipException("Not in block gzip format.");
+        }
+        return (header.getShort(16) & 0xffff) + 1;
+    }
+
+    static ByteBuffer readFully(FileChannel channel, long pos, int len) throws IOException {
+        ByteBuffer bb = ByteBuffer.allocate(len).order(ByteOrder.LITTLE_ENDIAN);
+        while (bb.hasRemaining()) {
+            if (channel.read(bb, pos + bb.position()) == -1) {
+                throw new EOFException("Unexpected end of block gzip file.");
+            }
+        }
+        bb.flip();
+        return bb;
+    }
+}
@@ -0,0 +1,150 @@
+package scottf;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.zip.ZipException;
+
+/**
+ * Random access reads of a block gzip file, see {@link BlockGZipWriter}.
+ * A read decompresses only the blocks that hold the range asked for, optionally at the same time on a fork join pool.
+ * The index comes from the sidecar file if there is one, otherwise it is built from the block headers.
+ * Reads use positional channel reads, so one reader can be used by many threads.
+ */
+public class BlockGZipReader implements Closeable {
+    private final FileChannel channel;
+    private final BlockGZipIndex index;
+    private final ZlibPool pool;
+
+    /**
+     * Open a block gzip file
+     * @param path the file
+     * @throws IOException if the file cannot be read or is not block gzip
+     */
+    public BlockGZipReader(Path path) throws IOException {
+        channel = FileChannel.open(path, StandardOpenOption.READ);
+        try {
+            Path sidecar = Paths.get(path + BlockGZipIndex.SIDECAR_SUFFIX);
+            index = Files.exists(sidecar) ? BlockGZipIndex.read(sidecar, channel) : BlockGZipIndex.build(channel);
+        }
+        catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+        pool = new ZlibPool();
+    }
+
+    public BlockGZipIndex getIndex() {
+        return index;
+    }
+
+    /**
+     * The total uncompressed length
+     * @return the length
+     */
+    public long length() {
+        return index.length();
+    }
+
+    /**
+     * Read a range of the uncompressed data
+     * @param offset the uncompressed offset to start at
+     * @param len the number of bytes, fewer are returned if the range runs past the end
+     * @return the bytes
+     * @throws IOException if the file cannot be read or is corrupt
+     */
+    public byte[] read(long offset, int len) throws IOException {
+        return read(offset, len, null);
+    }
+
+    /**
+     * Read a range of the uncompressed data, decompressing the blocks at the same time
+     * @param offset the uncompressed offset to start at
+     * @param len the number of bytes, fewer are returned if the range runs past the end
+     * @param forkJoinPool the pool to decompress on, or null to decompress on this thread
+     * @return the bytes
+     * @throws IOException if the file cannot be read or is corrupt
+     */
+    public byte[] read(long offset, int len, ForkJoinPool forkJoinPool) throws IOException {
+        int first = index.blockOf(offset);
+        if (first == -1 || len <= 0) {
+            return new byte[0];
+        }
+        byte[] result = new byte[(int)Math.min(len, index.length() - offset)];
+        List<ForkJoinTask<Void>> tasks = new ArrayList<>();
+        for (int block = first; block < index.size() && index.getUncompressedOffset(block) < offset + result.length; block++) {
+            int b = block;
+            if (forkJoinPool == null) {
+                copyBlock(b, offset, result);
+            }
+            else {
+                tasks.add(forkJoinPool.submit(() -> {
+                    copyBlock(b, offset, result);
+                    return null;
+                }));
+            }
+        }
+        try {
+            for (ForkJoinTask<Void> task : tasks) {
+                task.join();
+            }
+        }
+        catch (RuntimeException e) {
+            for (ForkJoinTask<Void> task : tasks) {
+                task.cancel(false);
+            }
+            // the task's exception is wrapped, and wrapped again when it failed on another thread
+            for (Throwable t = e.getCause(); t != null; t = t.getCause()) {
+                if (t instanceof IOException) {
+                    throw (IOException)t;
+                }
+            }
+            throw e;
+        }
+        return result;
+    }
+
+    /**
+     * Decompress one whole block
+     * @param block the block
+     * @return the data in the block
+     * @throws IOException if the file cannot be read or is corrupt
+     */
+    public byte[] readBlock(int block) throws IOException {
+        // one read up to the next block, or the end of the file, which is never more than a block holds
+        long pos = index.getCompressedOffset(block);
+        long end = block + 1 < index.size() ? index.getCompressedOffset(block + 1) : channel.size();
+        int span = (int)Math.max(BlockGZipIndex.BLOCK_HEADER_LENGTH, Math.min(end - pos, BlockGZipIndex.MAX_BLOCK_LENGTH));
+        ByteBuffer bb = BlockGZipIndex.readFully(channel, pos, span);
+        int size = BlockGZipIndex.blockSize(bb);
+        if (size > span) {
+            throw new ZipException("Block gzip block is longer than the space before the next block.");
+        }
+        return GZipper.unzip(size == span ? bb.array() : Arrays.copyOf(bb.array(), size), pool);
+    }
+
+    // copy the part of the block that overlaps the range starting at offset into the result
+    private void copyBlock(int block, long offset, byte[] result) throws IOException {
+        byte[] data = readBlock(block);
+        long blockStart = index.getUncompressedOffset(block);
+        long from = Math.max(offset, blockStart);
+        long to = Math.min(offset + result.length, blockStart + data.length);
+        System.arraycopy(data, (int)(from - blockStart), result, (int)(from - offset), (int)(to - from));
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+        pool.close();
+    }
+}
@@ -0,0 +1,172 @@
+package scottf;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Writes block gzip, the BGZF layout: the data is cut into blocks of at most {@value #MAX_BLOCK_SIZE} bytes
+ * and each block is its own complete gzip member, with its compressed size in a BC extra field of the header.
+ * Any gunzip reads the file as a whole, and {@link BlockGZipReader} can decompress just the blocks it needs.
+ * <p>
+ * The writer keeps a {@link BlockGZipIndex} of where each block starts. {@link #flush} ends the current block early,
+ * so a record can be made to start on a block boundary. Closing writes the empty end of file block.
+ */
+public class BlockGZipWriter extends OutputStream {
+    // the most data in a block that still compresses to a block under 64K even if it doesn't compress
+    public static final int MAX_BLOCK_SIZE = 0xff00;
+
+    private final OutputStream out;
+    private final Deflater deflater;
+    private final CRC32 crc;
+    private final byte[] block;
+    private final ByteArrayBuilder member;
+    private final byte[] chunk;
+    private final BlockGZipIndex index;
+    private final Path indexPath;
+    private int blockLen;
+    private long compressedOffset;
+    private long uncompressedOffset;
+    private boolean closed;
+
+    /**
+     * Construct a writer to the stream at the default compression level
+     * @param out the stream, closed when the writer is closed
+     */
+    public BlockGZipWriter(OutputStream out) {
+        this(out, Deflater.DEFAULT_COMPRESSION, null);
+    }
+
+    /**
+     * Construct a writer to a file that also writes the index as a sidecar file when it is closed
+     * @param path the file, created or truncated. The sidecar is the same path plus {@value BlockGZipIndex#SIDECAR_SUFFIX}
+     * @throws IOException if the file cannot be opened
+     */
+    public BlockGZipWriter(Path path) throws IOException {
+        this(Files.newOutputStream(path), Deflater.DEFAULT_COMPRESSION, Paths.get(path + BlockGZipIndex.SIDECAR_SUFFIX));
+    }
+
+    /**
+     * Construct a writer
+     * @param out the stream, closed when the writer is closed
+     * @param level the compression level, 0-9 or {@link Deflater#DEFAULT_COMPRESSION}
+     * @param indexPath where to write the index on close, null for none
+     */
+    public BlockGZipWriter(OutputStream out, int level, Path indexPath) {
+        this.out = out;
+        this.indexPath = indexPath;
+        deflater = new Deflater(level, true);
+        crc = new CRC32();
+        block = new byte[MAX_BLOCK_SIZE];
+        member = new ByteArrayBuilder(0x10000);
+        chunk = new byte[8192];
+        index = new BlockGZipIndex();
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        if (blockLen == MAX_BLOCK_SIZE) {
+            writeBlock();
+        }
+        block[blockLen++] = (byte)b;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        while (len > 0) {
+            if (blockLen == MAX_BLOCK_SIZE) {
+                writeBlock();
+            }
+            int n = Math.min(len, MAX_BLOCK_SIZE - blockLen);
+            System.arraycopy(b, off, block, blockLen, n);
+            blockLen += n;
+            off += n;
+            len -= n;
+        }
+    }
+
+    /**
+     * End the current block, if it has any data, and flush the stream.
+     * The next byte written starts a new block.
+     * @throws IOException if the stream write fails
+     */
+    @Override
+    public void flush() throws IOException {
+        if (blockLen > 0) {
+            writeBlock();
+        }
+        out.flush();
+    }
+
+    // compress the block as a complete gzip member with the block size in the header
+    private void writeBlock() throws IOException {
+        if (closed) {
+            throw new IOException("Writer is closed.");
+        }
+        crc.reset();
+        crc.update(block, 0, blockLen);
+        deflater.reset();
+        deflater.setInput(block, 0, blockLen);
+        deflater.finish();
+
+        member.clear();
+        member.append(GZipper.HEADER);
+        member.internalArray()[3] = 4; // FEXTRA
+        member.putShortLE((short)6).append((byte)'B').append((byte)'C').putShortLE((short)2).putShortLE((short)0);
+        while (!deflater.finished()) {
+            member.append(chunk, 0, deflater.deflate(chunk));
+        }
+        member.putIntLE((int)crc.getValue()).putIntLE(blockLen);
+        int size = member.length();
+        member.internalArray()[16] = (byte)(size - 1);
+        member.internalArray()[17] = (byte)((size - 1) >>> 8);
+
+        if (blockLen > 0) {
+            index.add(compressedOffset, uncompressedOffset);
+        }
+        out.write(member.internalArray(), 0, size);
+        compressedOffset += size;
+        uncompressedOffset += blockLen;
+        index.setLength(uncompressedOffset);
+        blockLen = 0;
+    }
+
+    /**
+     * The index of the blocks written so far
+     * @return the index
+     */
+    public BlockGZipIndex getIndex() {
+        return index;
+    }
+
+    /**
+     * Write the last block, the empty end of file block and the sidecar index if there is one,
+     * then close the stream
+     * @throws IOException if writing fails
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        try {
+            if (blockLen > 0) {
+                writeBlock();
+            }
+            writeBlock(); // empty, marks the end of the file
+            closed = true;
+            if (indexPath != null) {
+                index.write(indexPath);
+            }
+        }
+        finally {
+            closed = true;
+            deflater.end();
+            out.close();
+        }
+    }
+}
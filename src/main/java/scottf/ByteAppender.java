@@ -0,0 +1,387 @@
+package scottf;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+
+import static java.nio.charset.StandardCharsets.ISO_8859_1;
+import static scottf.ByteArrayBuilder.NULL;
+
+/**
+ * The append surface shared by the builders. Implementations only have to supply
+ * single byte and byte array appends, everything else has a default that builds on those.
+ * The number and binary defaults don't allocate. The String and CharBuffer appends allocate the encoded bytes,
+ * and append(double, int) falls back to BigDecimal when the scaled value is too big for a long.
+ * Implementations are expected to override what they can do faster.
+ * Implementations narrow the return types to themselves so they stay fluent.
+ */
+public interface ByteAppender {
+
+    /**
+     * Append a byte as is
+     *
+     * @param  b the byte
+     * @return this (fluent)
+     */
+    ByteAppender append(byte b);
+
+    /**
+     * Append a byte array
+     *
+     * @param  src
+     *         The array from which bytes are to be read
+     * @param  offset
+     *         The offset within the array of the first byte to be read;
+     *         must be non-negative and no larger than <code>array.length</code>
+     * @param  len
+     *         The number of bytes to be read from the given array;
+     *         must be non-negative and no larger than
+     *         <code>array.length - offset</code>
+     * @return this (fluent)
+     */
+    ByteAppender append(byte[] src, int offset, int len);
+
+    /**
+     * Append a byte array
+     *
+     * @param  src
+     *         The array from which bytes are to be read
+     * @return this (fluent)
+     */
+    default ByteAppender append(byte[] src) {
+        return append(src, 0, src.length);
+    }
+
+    /**
+     * Append a byte array
+     *
+     * @param  src
+     *         The array from which bytes are to be read
+     * @param  len
+     *         The number of bytes to be read from the given array
+     * @return this (fluent)
+     */
+    default ByteAppender append(byte[] src, int len) {
+        return append(src, 0, len);
+    }
+
+    /**
+     * Append a String with specified charset.
+     * If the src is null, the word 'null' is appended.
+     *
+     * @param  src
+     *         The String from which bytes are to be read
+     * @param charset the charset for encoding
+     * @return this (fluent)
+     */
+    default ByteAppender append(String src, Charset charset) {
+        return src == null ? append(NULL, 0, 4) : append(src.getBytes(charset));
+    }
+
+    /**
+     * Append a CharBuffer with specified charset.
+     * If the src is null, the word 'null' is appended.
+     *
+     * @param  src
+     *         The CharBuffer from which bytes are to be read
+     * @param charset the charset for encoding
+     * @return this (fluent)
+     */
+    default ByteAppender append(CharBuffer src, Charset charset) {
+        return src == null ? append(NULL, 0, 4) : append(src.toString().getBytes(charset));
+    }
+
+    /**
+     * Append the contents of a builder.
+     * If the builder is null, nothing is appended.
+     *
+     * @param  bab the builder
+     * @return this (fluent)
+     */
+    default ByteAppender append(ByteArrayBuilder bab) {
+        if (bab != null) {
+            bab.appendTo(this);
+        }
+        return this;
+    }
+
+    /**
+     * Append a String representation of the number.
+     *
+     * @param  i the number
+     * @return this (fluent)
+     */
+    default ByteAppender append(int i) {
+        return append((long)i);
+    }
+
+    /**
+     * Append a String representation of the number.
+     *
+     * @param  l the number
+     * @return this (fluent)
+     */
+    default ByteAppender append(long l) {
+        if (l < 0) {
+            append((byte)'-');
+        }
+        AsciiNumbers.appendDigits(this, l < 0 ? l : -l, AsciiNumbers.digits(l));
+        return this;
+    }
+
+    /**
+     * Append a String representation of the number treated as an unsigned 64 bit value,
+     * the same as {@link Long#toUnsignedString(long)}.
+     *
+     * @param  l the number
+     * @return this (fluent)
+     */
+    default ByteAppender appendUnsigned(long l) {
+        if (l >= 0) {
+            return append(l);
+        }
+        long q = (l >>> 1) / 5; // unsigned divide by 10
+        AsciiNumbers.appendDigits(this, -q, AsciiNumbers.digits(q));
+        return append((byte)('0' + (l - q * 10)));
+    }
+
+    /**
+     * Append a String representation of the number, left padded with zeros
+     * to the minimum number of digits. The sign does not count as a digit,
+     * so -5 with 3 digits is -005
+     *
+     * @param  l the number
+     * @param  minDigits the minimum number of digits
+     * @return this (fluent)
+     */
+    default ByteAppender appendPadded(long l, int minDigits) {
+        if (l < 0) {
+            append((byte)'-');
+        }
+        AsciiNumbers.appendDigits(this, l < 0 ? l : -l, Math.max(minDigits, AsciiNumbers.digits(l)));
+        return this;
+    }
+
+    /**
+     * Append the lower case hex representation of the number treated as an unsigned 32 bit value,
+     * the same as {@link Integer#toHexString(int)}
+     *
+     * @param  i the number
+     * @return this (fluent)
+     */
+    default ByteAppender appendHex(int i) {
+        return appendHex(i & 0xFFFFFFFFL, 0);
+    }
+
+    /**
+     * Append the lower case hex representation of the number treated as an unsigned 64 bit value,
+     * the same as {@link Long#toHexString(long)}
+     *
+     * @param  l the number
+     * @return this (fluent)
+     */
+    default ByteAppender appendHex(long l) {
+        return appendHex(l, 0);
+    }
+
+    /**
+     * Append the lower case hex representation of the number treated as an unsigned 64 bit value,
+     * left padded with zeros to the minimum number of hex digits
+     *
+     * @param  l the number
+     * @param  minDigits the minimum number of hex digits
+     * @return this (fluent)
+     */
+    default ByteAppender appendHex(long l, int minDigits) {
+        int hexDigits = AsciiNumbers.hexSize(l);
+        for (int x = hexDigits; x < minDigits; x++) {
+            append((byte)'0');
+        }
+        for (int x = hexDigits - 1; x >= 0; x--) {
+            append(AsciiNumbers.HEX[(int)((l >>> (x * 4)) & 0xF)]);
+        }
+        return this;
+    }
+
+    /**
+     * Append a String representation of the number with exactly scale digits after the decimal point,
+     * rounded half up. Negative scale is treated as 0. A value that rounds to zero is written without a sign.
+     * NaN and the infinities are written the same as {@link Double#toString(double)}
+     * Values too big to scale into a long fall back to {@link BigDecimal}
+     *
+     * @param  d the number
+     * @param  scale the number of digits after the decimal point
+     * @return this (fluent)
+     */
+    default ByteAppender append(double d, int scale) {
+        if (Double.isNaN(d) || Double.isInfinite(d)) {
+            return append(Double.toString(d), ISO_8859_1);
+        }
+        scale = Math.max(0, scale);
+        double abs = Math.abs(d);
+        if (scale >= AsciiNumbers.POW10.length || abs * AsciiNumbers.POW10[scale] >= AsciiNumbers.MAX_SCALED_DOUBLE) {
+            return append(new BigDecimal(d).setScale(scale, RoundingMode.HALF_UP).toPlainString(), ISO_8859_1);
+        }
+
+        long pow = AsciiNumbers.POW10[scale];
+        long scaled = Math.round(abs * pow);
+        long whole = scaled / pow;
+        if (d < 0 && scaled != 0) {
+            append((byte)'-');
+        }
+        AsciiNumbers.appendDigits(this, -whole, AsciiNumbers.digits(whole));
+        if (scale > 0) {
+            append((byte)'.');
+            AsciiNumbers.appendDigits(this, -(scaled % pow), scale);
+        }
+        return this;
+    }
+
+    /**
+     * Append the value as 2 bytes, big endian
+     *
+     * @param  s the value
+     * @return this (fluent)
+     */
+    default ByteAppender putShort(short s) {
+        append((byte)(s >> 8));
+        return append((byte)s);
+    }
+
+    /**
+     * Append the value as 2 bytes, little endian
+     *
+     * @param  s the value
+     * @return this (fluent)
+     */
+    default ByteAppender putShortLE(short s) {
+        return putShort(Short.reverseBytes(s));
+    }
+
+    /**
+     * Append the value as 4 bytes, big endian
+     *
+     * @param  i the value
+     * @return this (fluent)
+     */
+    default ByteAppender putInt(int i) {
+        for (int shift = 24; shift >= 0; shift -= 8) {
+            append((byte)(i >> shift));
+        }
+        return this;
+    }
+
+    /**
+     * Append the value as 4 bytes, little endian
+     *
+     * @param  i the value
+     * @return this (fluent)
+     */
+    default ByteAppender putIntLE(int i) {
+        return putInt(Integer.reverseBytes(i));
+    }
+
+    /**
+     * Append the value as 8 bytes, big endian
+     *
+     * @param  l the value
+     * @return this (fluent)
+     */
+    default ByteAppender putLong(long l) {
+        for (int shift = 56; shift >= 0; shift -= 8) {
+            append((byte)(l >> shift));
+        }
+        return this;
+    }
+
+    /**
+     * Append the value as 8 bytes, little endian
+     *
+     * @param  l the value
+     * @return this (fluent)
+     */
+    default ByteAppender putLongLE(long l) {
+        return putLong(Long.reverseBytes(l));
+    }
+
+    /**
+     * Append the IEEE 754 bits of the value as 8 bytes, big endian
+     *
+     * @param  d the value
+     * @return this (fluent)
+     */
+    default ByteAppender putDouble(double d) {
+        return putLong(Double.doubleToRawLongBits(d));
+    }
+
+    /**
+     * Append the IEEE 754 bits of the value as 8 bytes, little endian
+     *
+     * @param  d the value
+     * @return this (fluent)
+     */
+    default ByteAppender putDoubleLE(double d) {
+        return putLongLE(Double.doubleToRawLongBits(d));
+    }
+
+    /**
+     * Append the value treated as unsigned as an LEB128 varint,
+     * 7 bits per byte, least significant first, high bit set when more bytes follow.
+     * Takes 1 to 10 bytes, small values take fewer.
+     *
+     * @param  l the value
+     * @return this (fluent)
+     */
+    default ByteAppender putVarint(long l) {
+        while ((l & ~0x7FL) != 0) {
+            append((byte)((l & 0x7F) | 0x80));
+            l >>>= 7;
+        }
+        return append((byte)l);
+    }
+
+    /**
+     * Append the signed value zigzag encoded as an LEB128 varint,
+     * so small negative values take few bytes too
+     *
+     * @param  l the value
+     * @return this (fluent)
+     */
+    default ByteAppender putZigZag(long l) {
+        return putVarint((l << 1) ^ (l >> 63));
+    }
+
+    /**
+     * Append the length of the bytes as a varint followed by the bytes
+     *
+     * @param  src the bytes
+     * @return this (fluent)
+     */
+    default ByteAppender putLengthPrefixed(byte[] src) {
+        return putLengthPrefixed(src, 0, src.length);
+    }
+
+    /**
+     * Append the length as a varint followed by the bytes
+     *
+     * @param  src the bytes
+     * @param  offset the offset of the first byte
+     * @param  len the number of bytes
+     * @return this (fluent)
+     */
+    default ByteAppender putLengthPrefixed(byte[] src, int offset, int len) {
+        putVarint(len);
+        return append(src, offset, len);
+    }
+
+    /**
+     * The number of bytes the value takes as a varint
+     *
+     * @param  l the value
+     * @return the number of bytes, 1 to 10
+     */
+    static int varintSize(long l) {
+        return l == 0 ? 1 : (70 - Long.numberOfLeadingZeros(l)) / 7;
+    }
+}
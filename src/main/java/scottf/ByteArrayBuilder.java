@@ -1,21 +1,39 @@
 package scottf;
 
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
 import java.nio.ByteBuffer;
 import java.nio.CharBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.WritableByteChannel;
 import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
 import java.util.Arrays;
 
 import static java.nio.charset.StandardCharsets.ISO_8859_1;
 import static java.nio.charset.StandardCharsets.US_ASCII;
+import static java.nio.charset.StandardCharsets.UTF_8;
 
-public class ByteArrayBuilder {
+public class ByteArrayBuilder implements ByteAppender {
     public static final int DEFAULT_ASCII_ALLOCATION = 32;
     public static final int DEFAULT_OTHER_ALLOCATION = 64;
     public static final byte[] NULL = "null".getBytes(ISO_8859_1);
 
+    // big enough for any number that isn't padded with a lot of zeros
+    private static final int SCRATCH_SIZE = 40;
+
     private final Charset defaultCharset;
+    private final boolean direct;
     private ByteBuffer buffer;
     private int allocationSize;
+    private byte[] scratch;
+    private CharsetEncoder encoder;
+    private GrowthStrategy growthStrategy;
+    private long resizes;
+    private long bytesCopied;
 
     /**
      * Construct the ByteArrayBuilder with
@@ -51,6 +69,7 @@ public class ByteArrayBuilder {
         allocationSize = Math.max(DEFAULT_ASCII_ALLOCATION, bytes.length);
         this.buffer = ByteBuffer.allocate(bytes.length);
         this.defaultCharset = ISO_8859_1;
+        this.direct = false;
         buffer.put(bytes, 0, bytes.length);
     }
 
@@ -82,13 +101,41 @@ public class ByteArrayBuilder {
      * @param defaultCharset the default character set
      */
     public ByteArrayBuilder(int initialSize, int allocationSize, Charset defaultCharset) {
+        this(initialSize, allocationSize, defaultCharset, false);
+    }
+
+    /**
+     * Construct the ByteArrayBuilder with the supplied initial size,
+     * allocation size and character set, optionally backed by direct (off heap) memory.
+     * A direct builder can be written to a channel without the JDK first copying
+     * it to a temporary direct buffer, but it has no internal array.
+     * @param initialSize the initial size
+     * @param allocationSize the allocationSize size
+     * @param defaultCharset the default character set
+     * @param direct whether to use direct memory
+     */
+    public ByteArrayBuilder(int initialSize, int allocationSize, Charset defaultCharset, boolean direct) {
         int alSize = defaultCharset == ISO_8859_1 || defaultCharset == US_ASCII ? DEFAULT_ASCII_ALLOCATION : DEFAULT_OTHER_ALLOCATION;
         this.allocationSize = allocationSize > 0 ? allocationSize : alSize;
         int bytesNeeded = initialSize > 0 ? initialSize : alSize;
-        this.buffer = ByteBuffer.allocate(bytesNeeded);
+        this.direct = direct;
+        this.buffer = allocate(bytesNeeded);
         this.defaultCharset = defaultCharset;
     }
 
+    private ByteBuffer allocate(int size) {
+        return direct ? ByteBuffer.allocateDirect(size) : ByteBuffer.allocate(size);
+    }
+
+    /**
+     * Whether this builder is backed by direct (off heap) memory
+     *
+     * @return true if direct
+     */
+    public boolean isDirect() {
+        return direct;
+    }
+
     /**
      * Get the length of the data in the buffer
      *
@@ -98,6 +145,15 @@ public class ByteArrayBuilder {
         return buffer.position();
     }
 
+    /**
+     * Get the number of bytes the buffer can hold before it has to grow
+     *
+     * @return the capacity
+     */
+    public int capacity() {
+        return buffer.capacity();
+    }
+
     /**
      * Determine if a byte array contains the same bytes as this buffer
      *
@@ -108,13 +164,224 @@ public class ByteArrayBuilder {
         if (bytes == null || buffer.position() != bytes.length) {
             return false;
         }
-        byte[] hb = buffer.array();
-        for (int x = 0; x < bytes.length; x++) {
-            if (hb[x] != bytes[x]) {
-                return false;
+        return regionMismatch(0, bytes, 0, bytes.length) == -1;
+    }
+
+    /**
+     * Determine if the data in the buffer starts with the bytes
+     *
+     * @param prefix the bytes
+     * @return true if the buffer starts with the bytes
+     */
+    public boolean startsWith(byte[] prefix) {
+        return prefix.length <= length() && regionMismatch(0, prefix, 0, prefix.length) == -1;
+    }
+
+    /**
+     * Determine if the data in the buffer ends with the bytes
+     *
+     * @param suffix the bytes
+     * @return true if the buffer ends with the bytes
+     */
+    public boolean endsWith(byte[] suffix) {
+        int start = length() - suffix.length;
+        return start >= 0 && regionMismatch(start, suffix, 0, suffix.length) == -1;
+    }
+
+    /**
+     * Find the first occurrence of the byte
+     *
+     * @param b the byte
+     * @return the index of the byte or -1 if it is not found
+     */
+    public int indexOf(byte b) {
+        return indexOf(b, 0);
+    }
+
+    /**
+     * Find the first occurrence of the byte, starting at the index.
+     * The data is scanned a word (8 bytes) at a time.
+     *
+     * @param b the byte
+     * @param fromIndex the index to start at
+     * @return the index of the byte or -1 if it is not found
+     */
+    public int indexOf(byte b, int fromIndex) {
+        int len = length();
+        int x = Math.max(fromIndex, 0);
+        long pattern = (b & 0xFFL) * 0x0101010101010101L;
+        for (; x + 8 <= len; x += 8) {
+            // bytes equal to b become zero, then the high bit is set only in the zero bytes
+            // the buffer is big endian, so the first byte in the buffer is the most significant
+            long w = buffer.getLong(x) ^ pattern;
+            long zeros = ~(((w & 0x7F7F7F7F7F7F7F7FL) + 0x7F7F7F7F7F7F7F7FL) | w | 0x7F7F7F7F7F7F7F7FL);
+            if (zeros != 0) {
+                return x + (Long.numberOfLeadingZeros(zeros) >>> 3);
+            }
+        }
+        for (; x < len; x++) {
+            if (buffer.get(x) == b) {
+                return x;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Find the first occurrence of the bytes, for instance a CRLF
+     *
+     * @param target the bytes
+     * @return the index of the bytes or -1 if they are not found
+     */
+    public int indexOf(byte[] target) {
+        return indexOf(target, 0);
+    }
+
+    /**
+     * Find the first occurrence of the bytes, starting at the index
+     *
+     * @param target the bytes
+     * @param fromIndex the index to start at
+     * @return the index of the bytes or -1 if they are not found
+     */
+    public int indexOf(byte[] target, int fromIndex) {
+        int len = length();
+        int x = Math.max(fromIndex, 0);
+        if (target.length == 0) {
+            return Math.min(x, len);
+        }
+        int last = len - target.length;
+        while (x <= last) {
+            x = indexOf(target[0], x);
+            if (x == -1 || x > last) {
+                return -1;
+            }
+            if (regionMismatch(x + 1, target, 1, target.length - 1) == -1) {
+                return x;
             }
+            x++;
+        }
+        return -1;
+    }
+
+    /**
+     * Find the index of the first byte that is different between the data in the buffer and the bytes.
+     * If one is a prefix of the other, that is the smaller length.
+     *
+     * @param bytes the bytes
+     * @return the index or -1 if they are the same
+     */
+    public int mismatch(byte[] bytes) {
+        if (direct) {
+            return readView().mismatch(ByteBuffer.wrap(bytes));
+        }
+        return Arrays.mismatch(buffer.array(), 0, length(), bytes, 0, bytes.length);
+    }
+
+    /**
+     * Find the index of the first byte that is different between the data in this and another builder.
+     * If one is a prefix of the other, that is the smaller length.
+     *
+     * @param other the other builder
+     * @return the index or -1 if they are the same
+     */
+    public int mismatch(ByteArrayBuilder other) {
+        if (direct || other.direct) {
+            return readView().mismatch(other.readView());
+        }
+        return Arrays.mismatch(buffer.array(), 0, length(), other.buffer.array(), 0, other.length());
+    }
+
+    /**
+     * Compare the data in the buffer to the bytes lexicographically, treating bytes as unsigned
+     *
+     * @param bytes the bytes
+     * @return negative, zero or positive if the buffer is less than, equal to or greater than the bytes
+     */
+    public int compareTo(byte[] bytes) {
+        int m = mismatch(bytes);
+        if (m == -1) {
+            return 0;
+        }
+        if (m < length() && m < bytes.length) {
+            return Byte.compareUnsigned(buffer.get(m), bytes[m]);
+        }
+        return length() - bytes.length;
+    }
+
+    /**
+     * Compare the data in this and another builder lexicographically, treating bytes as unsigned
+     *
+     * @param other the other builder
+     * @return negative, zero or positive if this is less than, equal to or greater than the other
+     */
+    public int compareTo(ByteArrayBuilder other) {
+        int m = mismatch(other);
+        if (m == -1) {
+            return 0;
+        }
+        if (m < length() && m < other.length()) {
+            return Byte.compareUnsigned(buffer.get(m), other.buffer.get(m));
+        }
+        return length() - other.length();
+    }
+
+    /**
+     * The xxHash64 of the data in the buffer, computed in place without copying
+     *
+     * @return the hash
+     */
+    public long hash64() {
+        return hash64(0);
+    }
+
+    /**
+     * The xxHash64 of the data in the buffer with a seed, computed in place without copying
+     *
+     * @param seed the seed
+     * @return the hash
+     */
+    public long hash64(long seed) {
+        return ByteHash.xxHash64(buffer, 0, length(), seed);
+    }
+
+    /**
+     * The 32 bit Murmur3 of the data in the buffer, computed in place without copying
+     *
+     * @return the hash
+     */
+    public int hash32() {
+        return hash32(0);
+    }
+
+    /**
+     * The 32 bit Murmur3 of the data in the buffer with a seed, computed in place without copying
+     *
+     * @param seed the seed
+     * @return the hash
+     */
+    public int hash32(int seed) {
+        return ByteHash.murmur3(buffer, 0, length(), seed);
+    }
+
+    /**
+     * A key over the content of this builder for use in hash maps and sets, without copying.
+     * The builder must not be changed while the key is in use.
+     *
+     * @return the key
+     */
+    public ContentKey contentKey() {
+        return new ContentKey(this);
+    }
+
+    // compare len bytes starting at from with the bytes starting at off, the caller makes sure from + len fits
+    private int regionMismatch(int from, byte[] bytes, int off, int len) {
+        if (direct) {
+            ByteBuffer view = buffer.duplicate();
+            view.limit(from + len).position(from);
+            return view.mismatch(ByteBuffer.wrap(bytes, off, len));
         }
-        return true;
+        return Arrays.mismatch(buffer.array(), from, from + len, bytes, off, off + len);
     }
 
     /**
@@ -128,8 +395,31 @@ public class ByteArrayBuilder {
      */
     public int copyTo(byte[] dest, int destPos) {
         int len = length();
-        byte[] hb = buffer.array();
-        System.arraycopy(hb, 0, dest, destPos, len);
+        if (direct) {
+            readView().get(dest, destPos, len);
+        }
+        else {
+            System.arraycopy(buffer.array(), 0, dest, destPos, len);
+        }
+        return len;
+    }
+
+    /**
+     * Append the data in the buffer to another appender
+     *
+     * @param out the appender
+     * @return the number of bytes appended
+     */
+    public int appendTo(ByteAppender out) {
+        int len = length();
+        if (len > 0) {
+            if (direct) {
+                out.append(toByteArray(), 0, len);
+            }
+            else {
+                out.append(buffer.array(), 0, len);
+            }
+        }
         return len;
     }
 
@@ -139,6 +429,11 @@ public class ByteArrayBuilder {
      * @return the copy of the bytes
      */
     public byte[] toByteArray() {
+        if (direct) {
+            byte[] bytes = new byte[length()];
+            copyTo(bytes, 0);
+            return bytes;
+        }
         return Arrays.copyOf(buffer.array(), buffer.position());
     }
 
@@ -147,12 +442,86 @@ public class ByteArrayBuilder {
      * with knowledge of {@link #length}
      *
      * @return a direct handle to the internal byte array
+     * @throws UnsupportedOperationException if the builder is direct, since there is no array
      */
     public byte[] internalArray() {
         return buffer.array();
     }
 
+    /**
+     * A view of the data in the buffer, position 0 and limit {@link #length}
+     * that shares the content but not the position and limit of this builder.
+     * The view is only valid until the builder grows.
+     *
+     * @return the view
+     */
+    public ByteBuffer readView() {
+        ByteBuffer view = buffer.duplicate();
+        view.flip();
+        return view;
+    }
+
+    /**
+     * A read cursor over the data in the buffer, without copying.
+     * The cursor is only valid until the builder grows or is cleared.
+     *
+     * @return the cursor
+     */
+    public ByteCursor reader() {
+        return new ByteCursor(readView());
+    }
+
+    /**
+     * Write the data in the buffer to the channel, without copying it to a byte array.
+     * Keeps writing until everything is written, or, for a non-blocking channel, until a write writes nothing.
+     * For a direct builder, the JDK can write straight from the buffer.
+     *
+     * @param channel the channel
+     * @return the number of bytes written
+     * @throws IOException if the channel write fails
+     */
+    public int writeTo(WritableByteChannel channel) throws IOException {
+        ByteBuffer view = readView();
+        while (view.hasRemaining()) {
+            if (channel.write(view) == 0) {
+                break;
+            }
+        }
+        return view.position();
+    }
+
+    /**
+     * Write the data in all the builders to the channel in order as one gathering write,
+     * without copying any of them to a byte array, for instance protocol line, headers and payload.
+     * Keeps writing until everything is written, or, for a non-blocking channel, until a write writes nothing.
+     *
+     * @param channel the channel
+     * @param babs the builders
+     * @return the number of bytes written
+     * @throws IOException if the channel write fails
+     */
+    public static long writeTo(GatheringByteChannel channel, ByteArrayBuilder... babs) throws IOException {
+        ByteBuffer[] views = new ByteBuffer[babs.length];
+        long total = 0;
+        for (int x = 0; x < babs.length; x++) {
+            views[x] = babs[x].readView();
+            total += views[x].limit();
+        }
+        long written = 0;
+        while (written < total) {
+            long n = channel.write(views);
+            if (n == 0) {
+                break;
+            }
+            written += n;
+        }
+        return written;
+    }
+
     protected int computeAmountToAllocate(int currentPosition, int bytesNeeded) {
+        if (growthStrategy != null) {
+            return Math.max(growthStrategy.newCapacity(buffer.capacity(), currentPosition + bytesNeeded), currentPosition + bytesNeeded);
+        }
         return ((currentPosition + bytesNeeded + allocationSize) / allocationSize) * allocationSize;
     }
 
@@ -168,15 +537,43 @@ public class ByteArrayBuilder {
     public ByteArrayBuilder ensureCapacity(int bytesNeeded) {
         int bytesAvailable = buffer.capacity() - buffer.position();
         if (bytesAvailable < bytesNeeded) {
-            ByteBuffer newBuffer
-                = ByteBuffer.allocate(
-                computeAmountToAllocate(buffer.position(), bytesNeeded));
-            newBuffer.put(buffer.array(), 0, buffer.position());
+            ByteBuffer newBuffer = allocate(computeAmountToAllocate(buffer.position(), bytesNeeded));
+            resizes++;
+            bytesCopied += buffer.position();
+            buffer.flip();
+            newBuffer.put(buffer);
             buffer = newBuffer;
         }
         return this;
     }
 
+    // Numbers are written backwards, so they need an array.
+    // That's the backing array for heap buffers, a scratch array for direct
+    // that is put to the buffer when the number is complete.
+    private byte[] reserve(int size) {
+        ensureCapacity(size);
+        if (direct) {
+            if (scratch == null || scratch.length < size) {
+                scratch = new byte[Math.max(SCRATCH_SIZE, size)];
+            }
+            return scratch;
+        }
+        return buffer.array();
+    }
+
+    private int reserveStart() {
+        return direct ? 0 : buffer.position();
+    }
+
+    private void commit(byte[] hb, int size) {
+        if (direct) {
+            buffer.put(hb, 0, size);
+        }
+        else {
+            buffer.position(buffer.position() + size);
+        }
+    }
+
     /**
      * Clear the buffer, resetting its length
      *
@@ -199,17 +596,265 @@ public class ByteArrayBuilder {
         return this;
     }
 
+    /**
+     * Change how the buffer grows. When the strategy is null, which is the default,
+     * the buffer grows to the next multiple of the allocation size.
+     * See {@link GrowthStrategy} for the built-in strategies
+     *
+     * @param growthStrategy the strategy
+     *
+     * @return this (fluent)
+     */
+    public ByteArrayBuilder setGrowthStrategy(GrowthStrategy growthStrategy) {
+        this.growthStrategy = growthStrategy;
+        return this;
+    }
+
+    public GrowthStrategy getGrowthStrategy() {
+        return growthStrategy;
+    }
+
+    /**
+     * The number of times the buffer has had to grow since it was constructed
+     * or since the growth stats were reset
+     *
+     * @return the count
+     */
+    public long getResizeCount() {
+        return resizes;
+    }
+
+    /**
+     * The number of bytes copied from old buffers to new ones when growing since
+     * the builder was constructed or since the growth stats were reset
+     *
+     * @return the count
+     */
+    public long getBytesCopied() {
+        return bytesCopied;
+    }
+
+    /**
+     * Reset the resize count and bytes copied
+     *
+     * @return this (fluent)
+     */
+    public ByteArrayBuilder resetGrowthStats() {
+        resizes = 0;
+        bytesCopied = 0;
+        return this;
+    }
+
     /**
      * Append a String representation of the number.
+     * The digits are written directly into the buffer.
      *
      * @param  i the number
      * @return this (fluent)
      */
     public ByteArrayBuilder append(int i) {
-        append(Integer.toString(i).getBytes(ISO_8859_1)); // a number is always ascii
+        return append((long)i);
+    }
+
+    /**
+     * Append a String representation of the number.
+     * The digits are written directly into the buffer.
+     *
+     * @param  l the number
+     * @return this (fluent)
+     */
+    public ByteArrayBuilder append(long l) {
+        int size = AsciiNumbers.size(l);
+        byte[] hb = reserve(size);
+        AsciiNumbers.putLong(hb, reserveStart() + size, l);
+        commit(hb, size);
+        return this;
+    }
+
+    /**
+     * Append a String representation of the number treated as an unsigned 64 bit value,
+     * the same as {@link Long#toUnsignedString(long)}.
+     * The digits are written directly into the buffer.
+     *
+     * @param  l the number
+     * @return this (fluent)
+     */
+    public ByteArrayBuilder appendUnsigned(long l) {
+        int size = AsciiNumbers.unsignedSize(l);
+        byte[] hb = reserve(size);
+        AsciiNumbers.putUnsigned(hb, reserveStart() + size, l);
+        commit(hb, size);
         return this;
     }
 
+    /**
+     * Append a String representation of the number, left padded with zeros
+     * to the minimum number of digits. The sign does not count as a digit,
+     * so -5 with 3 digits is -005
+     *
+     * @param  l the number
+     * @param  minDigits the minimum number of digits
+     * @return this (fluent)
+     */
+    public ByteArrayBuilder appendPadded(long l, int minDigits) {
+        int digits = AsciiNumbers.digits(l);
+        int zeros = Math.max(0, minDigits - digits);
+        int sign = l < 0 ? 1 : 0;
+        int size = sign + zeros + digits;
+        byte[] hb = reserve(size);
+        int pos = reserveStart();
+        if (sign == 1) {
+            hb[pos] = '-';
+        }
+        AsciiNumbers.putZeros(hb, pos + sign, zeros);
+        AsciiNumbers.putDigits(hb, pos + size, l < 0 ? l : -l);
+        commit(hb, size);
+        return this;
+    }
+
+    /**
+     * Append the lower case hex representation of the number treated as an unsigned 32 bit value,
+     * the same as {@link Integer#toHexString(int)}
+     *
+     * @param  i the number
+     * @return this (fluent)
+     */
+    public ByteArrayBuilder appendHex(int i) {
+        return appendHex(i & 0xFFFFFFFFL);
+    }
+
+    /**
+     * Append the lower case hex representation of the number treated as an unsigned 64 bit value,
+     * the same as {@link Long#toHexString(long)}
+     *
+     * @param  l the number
+     * @return this (fluent)
+     */
+    public ByteArrayBuilder appendHex(long l) {
+        return appendHex(l, 0);
+    }
+
+    /**
+     * Append the lower case hex representation of the number treated as an unsigned 64 bit value,
+     * left padded with zeros to the minimum number of hex digits
+     *
+     * @param  l the number
+     * @param  minDigits the minimum number of hex digits
+     * @return this (fluent)
+     */
+    public ByteArrayBuilder appendHex(long l, int minDigits) {
+        int size = Math.max(AsciiNumbers.hexSize(l), minDigits);
+        byte[] hb = reserve(size);
+        AsciiNumbers.putHex(hb, reserveStart() + size, l, size);
+        commit(hb, size);
+        return this;
+    }
+
+    /**
+     * Append a String representation of the number with exactly scale digits after the decimal point,
+     * rounded half up. Negative scale is treated as 0. A value that rounds to zero is written without a sign.
+     * NaN and the infinities are written the same as {@link Double#toString(double)}
+     * Values too big to scale into a long fall back to {@link BigDecimal}
+     *
+     * @param  d the number
+     * @param  scale the number of digits after the decimal point
+     * @return this (fluent)
+     */
+    public ByteArrayBuilder append(double d, int scale) {
+        if (Double.isNaN(d) || Double.isInfinite(d)) {
+            return append(Double.toString(d), ISO_8859_1);
+        }
+        scale = Math.max(0, scale);
+        double abs = Math.abs(d);
+        if (scale >= AsciiNumbers.POW10.length || abs * AsciiNumbers.POW10[scale] >= AsciiNumbers.MAX_SCALED_DOUBLE) {
+            return append(new BigDecimal(d).setScale(scale, RoundingMode.HALF_UP).toPlainString(), ISO_8859_1);
+        }
+
+        long pow = AsciiNumbers.POW10[scale];
+        long scaled = Math.round(abs * pow);
+        long whole = scaled / pow;
+        int sign = d < 0 && scaled != 0 ? 1 : 0;
+        int size = sign + AsciiNumbers.digits(whole) + (scale == 0 ? 0 : scale + 1);
+        byte[] hb = reserve(size);
+        int pos = reserveStart();
+        int end = pos + size;
+        if (scale > 0) {
+            int fracEnd = end;
+            end -= scale;
+            int fracStart = AsciiNumbers.putDigits(hb, fracEnd, -(scaled % pow));
+            AsciiNumbers.putZeros(hb, end, fracStart - end);
+            hb[--end] = '.';
+        }
+        AsciiNumbers.putDigits(hb, end, -whole);
+        if (sign == 1) {
+            hb[pos] = '-';
+        }
+        commit(hb, size);
+        return this;
+    }
+
+    public ByteArrayBuilder putShort(short s) {
+        ensureCapacity(2);
+        buffer.putShort(s);
+        return this;
+    }
+
+    public ByteArrayBuilder putShortLE(short s) {
+        return putShort(Short.reverseBytes(s));
+    }
+
+    public ByteArrayBuilder putInt(int i) {
+        ensureCapacity(4);
+        buffer.putInt(i);
+        return this;
+    }
+
+    public ByteArrayBuilder putIntLE(int i) {
+        return putInt(Integer.reverseBytes(i));
+    }
+
+    public ByteArrayBuilder putLong(long l) {
+        ensureCapacity(8);
+        buffer.putLong(l);
+        return this;
+    }
+
+    public ByteArrayBuilder putLongLE(long l) {
+        return putLong(Long.reverseBytes(l));
+    }
+
+    public ByteArrayBuilder putDouble(double d) {
+        return putLong(Double.doubleToRawLongBits(d));
+    }
+
+    public ByteArrayBuilder putDoubleLE(double d) {
+        return putLong(Long.reverseBytes(Double.doubleToRawLongBits(d)));
+    }
+
+    public ByteArrayBuilder putVarint(long l) {
+        ensureCapacity(ByteAppender.varintSize(l));
+        while ((l & ~0x7FL) != 0) {
+            buffer.put((byte)((l & 0x7F) | 0x80));
+            l >>>= 7;
+        }
+        buffer.put((byte)l);
+        return this;
+    }
+
+    public ByteArrayBuilder putZigZag(long l) {
+        return putVarint((l << 1) ^ (l >> 63));
+    }
+
+    public ByteArrayBuilder putLengthPrefixed(byte[] src) {
+        return putLengthPrefixed(src, 0, src.length);
+    }
+
+    public ByteArrayBuilder putLengthPrefixed(byte[] src, int offset, int len) {
+        ensureCapacity(ByteAppender.varintSize(len) + len);
+        putVarint(len);
+        return append(src, offset, len);
+    }
+
     /**
      * Append a String with the default charset.
      * If the src is null, the word 'null' is appended.
@@ -232,7 +877,7 @@ public class ByteArrayBuilder {
      * @return this (fluent)
      */
     public ByteArrayBuilder append(String src, Charset charset) {
-        return src == null ? append(NULL, 0, 4) : append(src.getBytes(charset));
+        return src == null ? append(NULL, 0, 4) : appendChars(src, charset);
     }
 
     /**
@@ -257,11 +902,65 @@ public class ByteArrayBuilder {
      * @return this (fluent)
      */
     public ByteArrayBuilder append(CharBuffer src, Charset charset) {
-        if (src == null) {
-            append(NULL, 0, 4);
+        return src == null ? append(NULL, 0, 4) : appendChars(src, charset);
+    }
+
+    // The chars are encoded directly into the buffer. Leading chars that map one to one
+    // to a byte in the charset are just copied, the rest goes through the cached encoder.
+    // Unmappable or malformed input is replaced, the same as String.getBytes
+    private ByteArrayBuilder appendChars(CharSequence src, Charset charset) {
+        int len = src.length();
+        int limit = charset == ISO_8859_1 ? 0xFF : (charset == US_ASCII || charset == UTF_8 ? 0x7F : -1);
+        int x = 0;
+        if (limit > 0) {
+            ensureCapacity(len);
+            int pos = buffer.position();
+            if (direct) {
+                for (char c; x < len && (c = src.charAt(x)) <= limit; x++) {
+                    buffer.put(pos + x, (byte)c);
+                }
+            }
+            else {
+                byte[] hb = buffer.array();
+                for (char c; x < len && (c = src.charAt(x)) <= limit; x++) {
+                    hb[pos + x] = (byte)c;
+                }
+            }
+            buffer.position(pos + x);
+            if (x == len) {
+                return this;
+            }
+        }
+
+        CharsetEncoder enc = encoder;
+        if (enc == null || enc.charset() != charset) {
+            enc = charset.newEncoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+            encoder = enc;
+        }
+        else {
+            enc.reset();
+        }
+
+        CharBuffer in;
+        if (src instanceof CharBuffer) {
+            in = ((CharBuffer)src).duplicate();
+            in.position(in.position() + x);
         }
         else {
-            append(src.toString().getBytes(charset));
+            in = CharBuffer.wrap(src, x, len);
+        }
+        ensureCapacity((int)(in.remaining() * enc.maxBytesPerChar()));
+        CoderResult cr = enc.encode(in, buffer, true);
+        while (cr.isOverflow()) {
+            ensureCapacity(Math.max(allocationSize, (int)(in.remaining() * enc.maxBytesPerChar())));
+            cr = enc.encode(in, buffer, true);
+        }
+        cr = enc.flush(buffer);
+        while (cr.isOverflow()) {
+            ensureCapacity(allocationSize);
+            cr = enc.flush(buffer);
         }
         return this;
     }
@@ -336,13 +1035,36 @@ public class ByteArrayBuilder {
 
     public ByteArrayBuilder append(ByteArrayBuilder bab) {
         if (bab != null && bab.length() > 0) {
-            append(bab.buffer.array(), 0, bab.length());
+            if (bab.direct) {
+                ensureCapacity(bab.length());
+                buffer.put(bab.readView());
+            }
+            else {
+                append(bab.buffer.array(), 0, bab.length());
+            }
+        }
+        return this;
+    }
+
+    /**
+     * Append the contents of a segmented builder, growing at most once
+     *
+     * @param  sbab the segmented builder
+     * @return this (fluent)
+     */
+    public ByteArrayBuilder append(SegmentedByteArrayBuilder sbab) {
+        if (sbab != null && sbab.length() > 0) {
+            ensureCapacity(sbab.length());
+            sbab.appendTo(this);
         }
         return this;
     }
 
     @Override
     public String toString() {
+        if (direct) {
+            return new String(toByteArray(), defaultCharset);
+        }
         return new String(buffer.array(), 0, buffer.position(), defaultCharset);
     }
 }
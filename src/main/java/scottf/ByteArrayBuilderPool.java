@@ -0,0 +1,201 @@
+package scottf;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A pool of reusable {@link ByteArrayBuilder} instances.
+ * Each thread keeps one builder of its own, backed by a shared, bounded
+ * set of slots that is split into stripes so threads don't all fight over the same slots.
+ * Builders whose capacity grew beyond the maximum retained capacity are not kept,
+ * so one huge message doesn't pin that memory forever.
+ * A builder must not be used after it has been released.
+ */
+public class ByteArrayBuilderPool {
+    public static final int DEFAULT_INITIAL_SIZE = 512;
+    public static final int DEFAULT_MAX_RETAINED_CAPACITY = 64 * 1024;
+    public static final int DEFAULT_STRIPES = Math.min(16, Runtime.getRuntime().availableProcessors());
+    public static final int DEFAULT_BUILDERS_PER_STRIPE = 8;
+
+    private final int initialSize;
+    private final int maxRetainedCapacity;
+    private final int stripes;
+    private final int buildersPerStripe;
+    private final ThreadLocal<ByteArrayBuilder> local;
+    private final AtomicReferenceArray<ByteArrayBuilder> shared;
+
+    private final LongAdder localHits;
+    private final LongAdder sharedHits;
+    private final LongAdder misses;
+    private final LongAdder oversize;
+    private final LongAdder discards;
+
+    /**
+     * Construct the pool with the default initial size, maximum retained capacity, stripes and builders per stripe
+     */
+    public ByteArrayBuilderPool() {
+        this(DEFAULT_INITIAL_SIZE, DEFAULT_MAX_RETAINED_CAPACITY, DEFAULT_STRIPES, DEFAULT_BUILDERS_PER_STRIPE);
+    }
+
+    /**
+     * Construct the pool with the supplied initial size and maximum retained capacity
+     * and the default stripes and builders per stripe
+     * @param initialSize the initial size of newly created builders
+     * @param maxRetainedCapacity builders with a capacity larger than this are dropped instead of pooled
+     */
+    public ByteArrayBuilderPool(int initialSize, int maxRetainedCapacity) {
+        this(initialSize, maxRetainedCapacity, DEFAULT_STRIPES, DEFAULT_BUILDERS_PER_STRIPE);
+    }
+
+    /**
+     * Construct the pool
+     * @param initialSize the initial size of newly created builders
+     * @param maxRetainedCapacity builders with a capacity larger than this are dropped instead of pooled
+     * @param stripes the number of stripes in the shared pool
+     * @param buildersPerStripe the number of builders each stripe can hold
+     */
+    public ByteArrayBuilderPool(int initialSize, int maxRetainedCapacity, int stripes, int buildersPerStripe) {
+        this.initialSize = initialSize > 0 ? initialSize : DEFAULT_INITIAL_SIZE;
+        this.maxRetainedCapacity = Math.max(maxRetainedCapacity, this.initialSize);
+        this.stripes = Math.max(1, stripes);
+        this.buildersPerStripe = Math.max(1, buildersPerStripe);
+        local = new ThreadLocal<>();
+        shared = new AtomicReferenceArray<>(this.stripes * this.buildersPerStripe);
+        localHits = new LongAdder();
+        sharedHits = new LongAdder();
+        misses = new LongAdder();
+        oversize = new LongAdder();
+        discards = new LongAdder();
+    }
+
+    /**
+     * Get a cleared builder, from the pool if one is available, otherwise a new one
+     * @return the builder
+     */
+    public ByteArrayBuilder acquire() {
+        ByteArrayBuilder bab = local.get();
+        if (bab != null) {
+            local.set(null);
+            localHits.increment();
+            return bab;
+        }
+
+        // start at this thread's stripe, but take from any stripe before giving up
+        int len = shared.length();
+        int start = stripeStart();
+        for (int x = 0; x < len; x++) {
+            int slot = (start + x) % len;
+            bab = shared.get(slot);
+            if (bab != null && shared.compareAndSet(slot, bab, null)) {
+                sharedHits.increment();
+                return bab;
+            }
+        }
+
+        misses.increment();
+        return new ByteArrayBuilder(initialSize);
+    }
+
+    /**
+     * Return a builder to the pool. The builder is cleared and must not be used by the caller after this.
+     * Builders that have grown beyond the maximum retained capacity are dropped.
+     * @param bab the builder, null is ignored
+     */
+    public void release(ByteArrayBuilder bab) {
+        if (bab == null) {
+            return;
+        }
+        if (bab.capacity() > maxRetainedCapacity) {
+            oversize.increment();
+            return;
+        }
+        bab.clear();
+
+        if (local.get() == null) {
+            local.set(bab);
+            return;
+        }
+
+        // only look in this thread's stripe, if it's full, let the builder go
+        int start = stripeStart();
+        for (int x = 0; x < buildersPerStripe; x++) {
+            int slot = start + x;
+            if (shared.get(slot) == null && shared.compareAndSet(slot, null, bab)) {
+                return;
+            }
+        }
+        discards.increment();
+    }
+
+    private int stripeStart() {
+        return (int)(Thread.currentThread().getId() % stripes) * buildersPerStripe;
+    }
+
+    public int getInitialSize() {
+        return initialSize;
+    }
+
+    public int getMaxRetainedCapacity() {
+        return maxRetainedCapacity;
+    }
+
+    /**
+     * The number of acquires satisfied by the thread's own builder
+     * @return the count
+     */
+    public long getLocalHits() {
+        return localHits.sum();
+    }
+
+    /**
+     * The number of acquires satisfied by the shared pool
+     * @return the count
+     */
+    public long getSharedHits() {
+        return sharedHits.sum();
+    }
+
+    /**
+     * The number of acquires satisfied from either the thread's builder or the shared pool
+     * @return the count
+     */
+    public long getHits() {
+        return localHits.sum() + sharedHits.sum();
+    }
+
+    /**
+     * The number of acquires that had to create a new builder
+     * @return the count
+     */
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    /**
+     * The number of released builders dropped because their capacity was larger than the maximum retained capacity
+     * @return the count
+     */
+    public long getOversize() {
+        return oversize.sum();
+    }
+
+    /**
+     * The number of released builders dropped because the pool was full
+     * @return the count
+     */
+    public long getDiscards() {
+        return discards.sum();
+    }
+
+    @Override
+    public String toString() {
+        return "ByteArrayBuilderPool{" +
+            "hits=" + getHits() +
+            ", localHits=" + getLocalHits() +
+            ", sharedHits=" + getSharedHits() +
+            ", misses=" + getMisses() +
+            ", oversize=" + getOversize() +
+            ", discards=" + getDiscards() +
+            '}';
+    }
+}
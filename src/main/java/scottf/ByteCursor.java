@@ -0,0 +1,397 @@
+package scottf;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.Charset;
+
+import static java.nio.charset.StandardCharsets.ISO_8859_1;
+
+/**
+ * A read cursor over bytes, usually the content of a {@link ByteArrayBuilder} via {@link ByteArrayBuilder#reader()}.
+ * It reads the bytes where they are. Slices and lines are new cursors over the same bytes, not copies.
+ * Binary values are big endian unless the method name ends in LE.
+ * Like the builder itself, it is not thread safe, and a cursor over a builder is only valid until the builder
+ * grows or is cleared.
+ */
+public class ByteCursor {
+    private final ByteBuffer buffer;
+
+    /**
+     * Construct a cursor over all the bytes
+     * @param bytes the bytes
+     */
+    public ByteCursor(byte[] bytes) {
+        this(bytes, 0, bytes.length);
+    }
+
+    /**
+     * Construct a cursor over part of the bytes. Positions in the cursor are relative to the offset.
+     * @param bytes the bytes
+     * @param offset the offset of the first byte
+     * @param len the number of bytes
+     */
+    public ByteCursor(byte[] bytes, int offset, int len) {
+        this(ByteBuffer.wrap(bytes, offset, len));
+    }
+
+    /**
+     * Construct a cursor over the remaining bytes of a buffer. The buffer's own position and limit are not changed.
+     * Positions in the cursor are relative to the buffer's position.
+     * @param buffer the buffer
+     */
+    public ByteCursor(ByteBuffer buffer) {
+        this.buffer = buffer.slice().order(ByteOrder.BIG_ENDIAN);
+    }
+
+    /**
+     * The current read position
+     * @return the position
+     */
+    public int position() {
+        return buffer.position();
+    }
+
+    /**
+     * Move the read position
+     * @param position the position
+     * @return this (fluent)
+     */
+    public ByteCursor position(int position) {
+        buffer.position(position);
+        return this;
+    }
+
+    /**
+     * The total number of bytes in the cursor
+     * @return the length
+     */
+    public int length() {
+        return buffer.limit();
+    }
+
+    /**
+     * The number of bytes left to read
+     * @return the number of bytes
+     */
+    public int remaining() {
+        return buffer.remaining();
+    }
+
+    public boolean hasRemaining() {
+        return buffer.hasRemaining();
+    }
+
+    /**
+     * Skip bytes
+     * @param n the number of bytes
+     * @return this (fluent)
+     */
+    public ByteCursor skip(int n) {
+        buffer.position(buffer.position() + n);
+        return this;
+    }
+
+    /**
+     * Remember the current position so {@link #reset} can return to it
+     * @return this (fluent)
+     */
+    public ByteCursor mark() {
+        buffer.mark();
+        return this;
+    }
+
+    /**
+     * Return to the marked position
+     * @return this (fluent)
+     */
+    public ByteCursor reset() {
+        buffer.reset();
+        return this;
+    }
+
+    /**
+     * Go back to the start
+     * @return this (fluent)
+     */
+    public ByteCursor rewind() {
+        buffer.rewind();
+        return this;
+    }
+
+    /**
+     * Get the byte at the current position without reading it
+     * @return the byte
+     */
+    public byte peek() {
+        return buffer.get(buffer.position());
+    }
+
+    /**
+     * Get the byte at an index without moving the position
+     * @param index the index
+     * @return the byte
+     */
+    public byte get(int index) {
+        return buffer.get(index);
+    }
+
+    public byte readByte() {
+        return buffer.get();
+    }
+
+    public int readUnsignedByte() {
+        return buffer.get() & 0xFF;
+    }
+
+    public short readShort() {
+        return buffer.getShort();
+    }
+
+    public int readInt() {
+        return buffer.getInt();
+    }
+
+    public long readLong() {
+        return buffer.getLong();
+    }
+
+    public double readDouble() {
+        return buffer.getDouble();
+    }
+
+    public short readShortLE() {
+        return Short.reverseBytes(buffer.getShort());
+    }
+
+    public int readIntLE() {
+        return Integer.reverseBytes(buffer.getInt());
+    }
+
+    public long readLongLE() {
+        return Long.reverseBytes(buffer.getLong());
+    }
+
+    public double readDoubleLE() {
+        return Double.longBitsToDouble(Long.reverseBytes(buffer.getLong()));
+    }
+
+    /**
+     * Read an unsigned LEB128 varint, see {@link ByteAppender#putVarint(long)}
+     * @return the value
+     * @throws NumberFormatException if the varint is longer than 10 bytes
+     */
+    public long readVarint() {
+        long result = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = buffer.get();
+            result |= (long)(b & 0x7F) << shift;
+            if (b >= 0) {
+                return result;
+            }
+        }
+        throw new NumberFormatException("Malformed varint ending at position " + buffer.position());
+    }
+
+    /**
+     * Read a zigzag encoded signed varint, see {@link ByteAppender#putZigZag(long)}
+     * @return the value
+     * @throws NumberFormatException if the varint is longer than 10 bytes
+     */
+    public long readZigZag() {
+        long l = readVarint();
+        return (l >>> 1) ^ -(l & 1);
+    }
+
+    /**
+     * Read a varint length followed by that many bytes, see {@link ByteAppender#putLengthPrefixed(byte[])}
+     * as a cursor over the bytes, without copying
+     * @return the cursor
+     * @throws NumberFormatException if the length is malformed or negative
+     */
+    public ByteCursor readLengthPrefixed() {
+        long len = readVarint();
+        if (len < 0 || len > Integer.MAX_VALUE) {
+            throw new NumberFormatException("Invalid length " + len);
+        }
+        return slice((int)len);
+    }
+
+    /**
+     * Read bytes into a new array. This copies.
+     * @param len the number of bytes
+     * @return the bytes
+     */
+    public byte[] readBytes(int len) {
+        byte[] bytes = new byte[len];
+        buffer.get(bytes);
+        return bytes;
+    }
+
+    /**
+     * Read bytes as a String
+     * @param len the number of bytes
+     * @param charset the charset for decoding
+     * @return the String
+     */
+    public String readString(int len, Charset charset) {
+        String s;
+        if (buffer.hasArray()) {
+            s = new String(buffer.array(), buffer.arrayOffset() + buffer.position(), len, charset);
+            skip(len);
+        }
+        else {
+            s = new String(readBytes(len), charset);
+        }
+        return s;
+    }
+
+    /**
+     * Read the next bytes as a cursor over the same bytes, without copying
+     * @param len the number of bytes
+     * @return the cursor
+     */
+    public ByteCursor slice(int len) {
+        return new ByteCursor(readBuffer(len));
+    }
+
+    /**
+     * Read the next bytes as a buffer over the same bytes, without copying
+     * @param len the number of bytes
+     * @return the buffer, position 0, limit len
+     */
+    public ByteBuffer readBuffer(int len) {
+        ByteBuffer view = buffer.duplicate();
+        view.limit(view.position() + len);
+        skip(len);
+        return view.slice();
+    }
+
+    /**
+     * Find the next occurrence of the byte, from the current position
+     * @param b the byte
+     * @return the index of the byte or -1 if it is not found
+     */
+    public int indexOf(byte b) {
+        int lim = buffer.limit();
+        for (int x = buffer.position(); x < lim; x++) {
+            if (buffer.get(x) == b) {
+                return x;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Read a line ending in LF or CRLF as a cursor over the bytes of the line, without the line ending.
+     * The position is moved past the line ending.
+     * If there is no line ending, nothing is read and null is returned, the line isn't complete yet.
+     * @return the line or null
+     */
+    public ByteCursor readLine() {
+        int lf = indexOf((byte)'\n');
+        if (lf == -1) {
+            return null;
+        }
+        int start = buffer.position();
+        int end = lf > start && buffer.get(lf - 1) == '\r' ? lf - 1 : lf;
+        ByteCursor line = slice(end - start);
+        buffer.position(lf + 1);
+        return line;
+    }
+
+    /**
+     * Read up to the delimiter as a cursor over those bytes, without the delimiter.
+     * The position is moved past the delimiter. If there is no delimiter, the rest is read.
+     * For instance, reading the space separated fields of a protocol line.
+     * @param delimiter the delimiter
+     * @return the bytes up to the delimiter
+     */
+    public ByteCursor readUntil(byte delimiter) {
+        int d = indexOf(delimiter);
+        if (d == -1) {
+            return slice(remaining());
+        }
+        ByteCursor token = slice(d - buffer.position());
+        skip(1);
+        return token;
+    }
+
+    /**
+     * Skip all the bytes at the current position that are the byte, i.e. spaces
+     * @param b the byte
+     * @return this (fluent)
+     */
+    public ByteCursor skipAll(byte b) {
+        int lim = buffer.limit();
+        int p = buffer.position();
+        while (p < lim && buffer.get(p) == b) {
+            p++;
+        }
+        buffer.position(p);
+        return this;
+    }
+
+    /**
+     * Parse the ascii number at the current position, an optional minus sign followed by digits.
+     * The position is moved past the last digit.
+     * @return the number
+     * @throws NumberFormatException if there are no digits or the number does not fit in a long
+     */
+    public long readAsciiLong() {
+        int lim = buffer.limit();
+        int p = buffer.position();
+        boolean neg = p < lim && buffer.get(p) == '-';
+        if (neg) {
+            p++;
+        }
+        int start = p;
+        long result = 0; // accumulate in the negative, it holds Long.MIN_VALUE
+        while (p < lim) {
+            int d = buffer.get(p) - '0';
+            if (d < 0 || d > 9) {
+                break;
+            }
+            if (result < Long.MIN_VALUE / 10 || result * 10 < Long.MIN_VALUE + d) {
+                throw new NumberFormatException("Number too large at position " + buffer.position());
+            }
+            result = result * 10 - d;
+            p++;
+        }
+        if (p == start) {
+            throw new NumberFormatException("No digits at position " + buffer.position());
+        }
+        if (!neg && result == Long.MIN_VALUE) {
+            throw new NumberFormatException("Number too large at position " + buffer.position());
+        }
+        buffer.position(p);
+        return neg ? result : -result;
+    }
+
+    /**
+     * Parse the ascii number at the current position, an optional minus sign followed by digits.
+     * The position is moved past the last digit.
+     * @return the number
+     * @throws NumberFormatException if there are no digits or the number does not fit in an int
+     */
+    public int readAsciiInt() {
+        int p = buffer.position();
+        long l = readAsciiLong();
+        if (l < Integer.MIN_VALUE || l > Integer.MAX_VALUE) {
+            buffer.position(p);
+            throw new NumberFormatException("Number too large at position " + p);
+        }
+        return (int)l;
+    }
+
+    /**
+     * The remaining bytes as an ISO_8859_1 String, without moving the position
+     * @return the String
+     */
+    @Override
+    public String toString() {
+        int p = buffer.position();
+        String s = readString(remaining(), ISO_8859_1);
+        buffer.position(p);
+        return s;
+    }
+}
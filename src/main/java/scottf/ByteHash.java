@@ -0,0 +1,156 @@
+package scottf;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Fast non-cryptographic hashes of bytes, for keying maps and dedup, not for security.
+ * <p>
+ * xxHash64 gives a 64 bit hash and is the faster of the two on longer data, it reads 8 bytes at a time.
+ * Murmur3 gives the 32 bit x86 variant. Both match the reference implementations.
+ * The ByteBuffer versions read with absolute gets, so they work on direct buffers and don't change the position.
+ */
+public abstract class ByteHash {
+    private static final long P1 = 0x9E3779B185EBCA87L;
+    private static final long P2 = 0xC2B2AE3D27D4EB4FL;
+    private static final long P3 = 0x165667B19E3779F9L;
+    private static final long P4 = 0x85EBCA77C2B2AE63L;
+    private static final long P5 = 0x27D4EB2F165667C5L;
+
+    private static final int C1 = 0xcc9e2d51;
+    private static final int C2 = 0x1b873593;
+
+    private ByteHash() {}  /* ensures cannot be constructed */
+
+    public static long xxHash64(byte[] bytes) {
+        return xxHash64(bytes, 0, bytes.length, 0);
+    }
+
+    public static long xxHash64(byte[] bytes, int offset, int len, long seed) {
+        return xxHash64(ByteBuffer.wrap(bytes), offset, len, seed);
+    }
+
+    /**
+     * The xxHash64 of the bytes in the buffer from the offset
+     * @param bb the buffer
+     * @param offset the index of the first byte
+     * @param len the number of bytes
+     * @param seed the seed
+     * @return the hash
+     */
+    public static long xxHash64(ByteBuffer bb, int offset, int len, long seed) {
+        if (bb.order() != ByteOrder.LITTLE_ENDIAN) {
+            bb = bb.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        }
+        int i = offset;
+        int end = offset + len;
+        long h;
+        if (len >= 32) {
+            long v1 = seed + P1 + P2;
+            long v2 = seed + P2;
+            long v3 = seed;
+            long v4 = seed - P1;
+            int limit = end - 32;
+            do {
+                v1 = round(v1, bb.getLong(i));
+                v2 = round(v2, bb.getLong(i + 8));
+                v3 = round(v3, bb.getLong(i + 16));
+                v4 = round(v4, bb.getLong(i + 24));
+                i += 32;
+            } while (i <= limit);
+            h = Long.rotateLeft(v1, 1) + Long.rotateLeft(v2, 7) + Long.rotateLeft(v3, 12) + Long.rotateLeft(v4, 18);
+            h = mergeRound(h, v1);
+            h = mergeRound(h, v2);
+            h = mergeRound(h, v3);
+            h = mergeRound(h, v4);
+        }
+        else {
+            h = seed + P5;
+        }
+        h += len;
+
+        for (; i + 8 <= end; i += 8) {
+            h ^= round(0, bb.getLong(i));
+            h = Long.rotateLeft(h, 27) * P1 + P4;
+        }
+        if (i + 4 <= end) {
+            h ^= (bb.getInt(i) & 0xFFFFFFFFL) * P1;
+            h = Long.rotateLeft(h, 23) * P2 + P3;
+            i += 4;
+        }
+        for (; i < end; i++) {
+            h ^= (bb.get(i) & 0xFFL) * P5;
+            h = Long.rotateLeft(h, 11) * P1;
+        }
+
+        h ^= h >>> 33;
+        h *= P2;
+        h ^= h >>> 29;
+        h *= P3;
+        h ^= h >>> 32;
+        return h;
+    }
+
+    private static long round(long acc, long input) {
+        acc += input * P2;
+        acc = Long.rotateLeft(acc, 31);
+        return acc * P1;
+    }
+
+    private static long mergeRound(long acc, long v) {
+        acc ^= round(0, v);
+        return acc * P1 + P4;
+    }
+
+    public static int murmur3(byte[] bytes) {
+        return murmur3(bytes, 0, bytes.length, 0);
+    }
+
+    public static int murmur3(byte[] bytes, int offset, int len, int seed) {
+        return murmur3(ByteBuffer.wrap(bytes), offset, len, seed);
+    }
+
+    /**
+     * The 32 bit Murmur3 of the bytes in the buffer from the offset
+     * @param bb the buffer
+     * @param offset the index of the first byte
+     * @param len the number of bytes
+     * @param seed the seed
+     * @return the hash
+     */
+    @SuppressWarnings("fallthrough")
+    public static int murmur3(ByteBuffer bb, int offset, int len, int seed) {
+        if (bb.order() != ByteOrder.LITTLE_ENDIAN) {
+            bb = bb.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        }
+        int h = seed;
+        int i = offset;
+        int blocksEnd = offset + (len & ~3);
+        for (; i < blocksEnd; i += 4) {
+            h ^= mixK(bb.getInt(i));
+            h = Integer.rotateLeft(h, 13);
+            h = h * 5 + 0xe6546b64;
+        }
+        int k = 0;
+        switch (len & 3) {
+            case 3: k ^= (bb.get(i + 2) & 0xFF) << 16;
+            case 2: k ^= (bb.get(i + 1) & 0xFF) << 8;
+            case 1: k ^= (bb.get(i) & 0xFF);
+                h ^= mixK(k);
+        }
+
+        h ^= len;
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return h;
+    }
+
+    private static int mixK(int k) {
+        k *= C1;
+        k = Integer.rotateLeft(k, 15);
+        return k * C2;
+    }
+}
@@ -0,0 +1,285 @@
+package scottf;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A fixed capacity, lock free byte ring for handing a stream of bytes from exactly one producer thread
+ * to exactly one consumer thread without copying it into a new array for each handoff.
+ * The producer appends with the {@link ByteAppender} methods, see {@link #producer()}.
+ * The consumer reads the bytes in place, see {@link #consumer()}.
+ * The read and write positions are on their own cache lines.
+ * It's a byte stream, message boundaries are up to whatever parses the bytes.
+ */
+public class ByteRingBuffer {
+    private final byte[] data;
+    private final int mask;
+    private final PaddedCounter head; // next sequence to read, written only by the consumer
+    private final PaddedCounter tail; // next sequence to write, written only by the producer
+    private final Producer producer;
+    private final Consumer consumer;
+    private volatile boolean closed;
+
+    /**
+     * Construct the ring. The capacity is rounded up to a power of 2.
+     * @param capacity the capacity
+     */
+    public ByteRingBuffer(int capacity) {
+        if (capacity < 1 || capacity > (1 << 30)) {
+            throw new IllegalArgumentException("Capacity must be between 1 and 2^30.");
+        }
+        int size = Integer.highestOneBit(capacity);
+        if (size < capacity) {
+            size <<= 1;
+        }
+        data = new byte[size];
+        mask = size - 1;
+        head = new PaddedCounter();
+        tail = new PaddedCounter();
+        producer = new Producer();
+        consumer = new Consumer();
+    }
+
+    public int capacity() {
+        return data.length;
+    }
+
+    /**
+     * The producer side, only to be used by the one producer thread
+     * @return the producer
+     */
+    public Producer producer() {
+        return producer;
+    }
+
+    /**
+     * The consumer side, only to be used by the one consumer thread
+     * @return the consumer
+     */
+    public Consumer consumer() {
+        return consumer;
+    }
+
+    /**
+     * Whether the producer has closed the ring
+     * @return true if closed
+     */
+    public boolean isClosed() {
+        return closed;
+    }
+
+    private static void idle(int tries) {
+        if (tries < 100) {
+            Thread.onSpinWait();
+        }
+        else {
+            Thread.yield();
+        }
+    }
+
+    public class Producer implements ByteAppender {
+        private long seq;
+        private long cachedHead;
+
+        private Producer() {}
+
+        /**
+         * The number of bytes that can be appended without waiting
+         * @return the number of bytes
+         */
+        public int writable() {
+            cachedHead = head.get();
+            return data.length - (int)(seq - cachedHead);
+        }
+
+        // wait until at least 1 byte is free, return how many are
+        private int awaitSpace() {
+            int free = data.length - (int)(seq - cachedHead);
+            int tries = 0;
+            while (free == 0) {
+                if (closed) {
+                    throw new IllegalStateException("Ring is closed.");
+                }
+                idle(tries++);
+                cachedHead = head.get();
+                free = data.length - (int)(seq - cachedHead);
+            }
+            return free;
+        }
+
+        /**
+         * Append a byte, waiting for the consumer to make room if the ring is full
+         * @param b the byte
+         * @return this (fluent)
+         */
+        @Override
+        public Producer append(byte b) {
+            awaitSpace();
+            data[(int)seq & mask] = b;
+            tail.lazySet(++seq);
+            return this;
+        }
+
+        /**
+         * Append bytes, waiting for the consumer to make room as needed, so more than
+         * the capacity can be appended in one call. What fits is made available as it is written.
+         * @param src the bytes
+         * @param offset the offset of the first byte
+         * @param len the number of bytes
+         * @return this (fluent)
+         */
+        @Override
+        public Producer append(byte[] src, int offset, int len) {
+            while (len > 0) {
+                int n = Math.min(len, awaitSpace());
+                put(src, offset, n);
+                offset += n;
+                len -= n;
+            }
+            return this;
+        }
+
+        /**
+         * Append as many bytes as fit without waiting
+         * @param src the bytes
+         * @param offset the offset of the first byte
+         * @param len the number of bytes
+         * @return the number of bytes appended
+         */
+        public int offer(byte[] src, int offset, int len) {
+            int n = Math.min(len, writable());
+            if (n > 0) {
+                put(src, offset, n);
+            }
+            return n;
+        }
+
+        private void put(byte[] src, int offset, int n) {
+            int idx = (int)seq & mask;
+            int first = Math.min(n, data.length - idx);
+            System.arraycopy(src, offset, data, idx, first);
+            if (first < n) {
+                System.arraycopy(src, offset + first, data, 0, n - first);
+            }
+            seq += n;
+            tail.lazySet(seq);
+        }
+
+        /**
+         * Close the ring, the consumer reads what is left, then sees the end
+         */
+        public void close() {
+            closed = true;
+        }
+    }
+
+    public class Consumer {
+        private long seq;
+
+        private Consumer() {}
+
+        /**
+         * The number of bytes available to read
+         * @return the number of bytes
+         */
+        public int available() {
+            return (int)(tail.get() - seq);
+        }
+
+        /**
+         * Whether the producer closed the ring and everything has been read
+         * @return true at the end of the stream
+         */
+        public boolean isEnd() {
+            return closed && available() == 0;
+        }
+
+        /**
+         * A view of the bytes available to read that are contiguous in the ring, without copying
+         * or consuming them. This can be fewer than {@link #available} when the bytes wrap
+         * around the end of the ring, after {@link #advance} past them, the rest is at the start.
+         * The view is only valid until the bytes are advanced past.
+         * @return the view, position 0, possibly empty
+         */
+        public ByteBuffer peek() {
+            int idx = (int)seq & mask;
+            int n = Math.min(available(), data.length - idx);
+            return ByteBuffer.wrap(data, idx, n).slice();
+        }
+
+        /**
+         * A cursor over the same bytes as {@link #peek}
+         * @return the cursor
+         */
+        public ByteCursor cursor() {
+            return new ByteCursor(peek());
+        }
+
+        /**
+         * Consume bytes that were looked at, making room for the producer
+         * @param n the number of bytes
+         */
+        public void advance(int n) {
+            if (n < 0 || n > available()) {
+                throw new IllegalArgumentException("Cannot advance " + n + " bytes, " + available() + " available.");
+            }
+            seq += n;
+            head.lazySet(seq);
+        }
+
+        /**
+         * Read one byte
+         * @return the byte as an unsigned value, or -1 if nothing is available
+         */
+        public int read() {
+            if (available() == 0) {
+                return -1;
+            }
+            int b = data[(int)seq & mask] & 0xFF;
+            head.lazySet(++seq);
+            return b;
+        }
+
+        /**
+         * Copy out and consume up to len available bytes, does not wait
+         * @param dest the destination
+         * @param offset the offset in the destination
+         * @param len the most bytes to read
+         * @return the number of bytes read, 0 if nothing is available, -1 at the end of the stream
+         */
+        public int read(byte[] dest, int offset, int len) {
+            boolean wasClosed = closed; // read before available so bytes written before close are not missed
+            int n = Math.min(len, available());
+            if (n == 0) {
+                return wasClosed && len > 0 ? -1 : 0;
+            }
+            int idx = (int)seq & mask;
+            int first = Math.min(n, data.length - idx);
+            System.arraycopy(data, idx, dest, offset, first);
+            if (first < n) {
+                System.arraycopy(data, 0, dest, offset + first, n - first);
+            }
+            seq += n;
+            head.lazySet(seq);
+            return n;
+        }
+
+        /**
+         * Append and consume everything available to another appender,
+         * for instance to accumulate a message in a builder
+         * @param out the appender
+         * @return the number of bytes
+         */
+        public int drainTo(ByteAppender out) {
+            int n = available();
+            int idx = (int)seq & mask;
+            int first = Math.min(n, data.length - idx);
+            out.append(data, idx, first);
+            if (first < n) {
+                out.append(data, 0, n - first);
+            }
+            seq += n;
+            head.lazySet(seq);
+            return n;
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package scottf;
+
+/**
+ * A hash map key over the content of a {@link ByteArrayBuilder}, so messages can be deduped or routed on
+ * their bytes without copying them to an array first. The xxHash64 of the content is computed once, when the key is made.
+ * Keys are equal when the content is equal.
+ * <p>
+ * The key does not copy the content, the builder must not be changed or cleared while the key is in a map.
+ */
+public final class ContentKey {
+    private final ByteArrayBuilder bab;
+    private final long hash64;
+
+    public ContentKey(ByteArrayBuilder bab) {
+        this.bab = bab;
+        hash64 = bab.hash64();
+    }
+
+    public ByteArrayBuilder getBuilder() {
+        return bab;
+    }
+
+    /**
+     * The full 64 bit hash of the content
+     * @return the hash
+     */
+    public long hash64() {
+        return hash64;
+    }
+
+    @Override
+    public int hashCode() {
+        return (int)(hash64 ^ (hash64 >>> 32));
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof ContentKey)) {
+            return false;
+        }
+        ContentKey that = (ContentKey)o;
+        return hash64 == that.hash64
+            && bab.length() == that.bab.length()
+            && bab.mismatch(that.bab) == -1;
+    }
+
+    @Override
+    public String toString() {
+        return bab.toString();
+    }
+}
@@ -0,0 +1,160 @@
+package scottf;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.Adler32;
+
+/**
+ * A preset dictionary for deflate. Small messages that look alike, like JSON with the same keys,
+ * compress poorly on their own because deflate has nothing to refer back to.
+ * Priming deflate with a dictionary of the common strings lets even the first bytes of a message be matches.
+ * <p>
+ * The id is the Adler-32 of the dictionary bytes, the same id zlib uses, so compressed data can say which
+ * dictionary it needs. {@link #train} builds a dictionary from sample messages.
+ */
+public class DeflateDictionary {
+    public static final int DEFAULT_MAX_SIZE = 16 * 1024;
+    public static final int MAX_SIZE = 32 * 1024; // deflate can't refer back further than this
+    private static final int SEGMENT_SIZE = 48;
+    private static final int DMER_SIZE = 6;
+
+    private final byte[] bytes;
+    private final int id;
+
+    /**
+     * Construct a dictionary from bytes, the most common strings should be at the end
+     * @param bytes the dictionary, at most {@value #MAX_SIZE} bytes are useful
+     */
+    public DeflateDictionary(byte[] bytes) {
+        this.bytes = bytes;
+        Adler32 adler = new Adler32();
+        adler.update(bytes, 0, bytes.length);
+        id = (int)adler.getValue();
+    }
+
+    public byte[] getBytes() {
+        return bytes;
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    public int length() {
+        return bytes.length;
+    }
+
+    /**
+     * Train a dictionary of the default maximum size from sample messages
+     * @param samples the samples
+     * @return the dictionary
+     */
+    public static DeflateDictionary train(Collection<byte[]> samples) {
+        return train(samples, DEFAULT_MAX_SIZE);
+    }
+
+    /**
+     * Train a dictionary from sample messages, the more samples the better, a few hundred is a good start.
+     * <p>
+     * Every run of 6 bytes is scored by how many samples it appears in. Then repeatedly the segment
+     * with the highest total score is picked and the runs in it are zeroed, so the next pick covers different strings.
+     * The first picks score highest and go at the end, closest to the data, where matches are cheapest.
+     * @param samples the samples
+     * @param maxSize the maximum size of the dictionary, up to {@value #MAX_SIZE}
+     * @return the dictionary
+     */
+    public static DeflateDictionary train(Collection<byte[]> samples, int maxSize) {
+        maxSize = Math.min(maxSize, MAX_SIZE);
+
+        // give each distinct run an id and count the samples it is in
+        Map<Long, Integer> ids = new HashMap<>();
+        List<int[]> sampleRuns = new ArrayList<>();
+        int[] counts = new int[1024];
+        int[] lastSample = new int[1024];
+        int sampleNumber = 0;
+        for (byte[] sample : samples) {
+            sampleNumber++;
+            int runs = Math.max(0, sample.length - DMER_SIZE + 1);
+            int[] runIds = new int[runs];
+            for (int p = 0; p < runs; p++) {
+                long key = 0;
+                for (int x = 0; x < DMER_SIZE; x++) {
+                    key = key << 8 | (sample[p + x] & 0xff);
+                }
+                Integer runId = ids.get(key);
+                if (runId == null) {
+                    runId = ids.size();
+                    ids.put(key, runId);
+                    if (runId == counts.length) {
+                        counts = Arrays.copyOf(counts, runId * 2);
+                        lastSample = Arrays.copyOf(lastSample, runId * 2);
+                    }
+                }
+                if (lastSample[runId] != sampleNumber) {
+                    lastSample[runId] = sampleNumber;
+                    counts[runId]++;
+                }
+                runIds[p] = runId;
+            }
+            sampleRuns.add(runIds);
+        }
+
+        // a run that is in only one sample is no help
+        for (int x = 0; x < ids.size(); x++) {
+            if (counts[x] < 2) {
+                counts[x] = 0;
+            }
+        }
+
+        List<byte[]> picks = new ArrayList<>();
+        List<byte[]> sampleList = new ArrayList<>(samples);
+        int size = 0;
+        int window = SEGMENT_SIZE - DMER_SIZE + 1;
+        while (size < maxSize) {
+            long bestScore = 0;
+            int bestSample = -1;
+            int bestStart = 0;
+            for (int s = 0; s < sampleRuns.size(); s++) {
+                int[] runIds = sampleRuns.get(s);
+                long score = 0;
+                for (int p = 0; p < runIds.length; p++) {
+                    score += counts[runIds[p]];
+                    if (p >= window) {
+                        score -= counts[runIds[p - window]];
+                    }
+                    if (score > bestScore) {
+                        bestScore = score;
+                        bestSample = s;
+                        bestStart = Math.max(0, p - window + 1);
+                    }
+                }
+            }
+            if (bestSample == -1) {
+                break;
+            }
+
+            byte[] sample = sampleList.get(bestSample);
+            int[] runIds = sampleRuns.get(bestSample);
+            int len = Math.min(Math.min(SEGMENT_SIZE, sample.length - bestStart), maxSize - size);
+            byte[] segment = new byte[len];
+            System.arraycopy(sample, bestStart, segment, 0, len);
+            picks.add(segment);
+            size += len;
+            for (int p = bestStart; p < Math.min(runIds.length, bestStart + window); p++) {
+                counts[runIds[p]] = 0;
+            }
+        }
+
+        byte[] dictionary = new byte[size];
+        int pos = size;
+        for (byte[] segment : picks) {
+            pos -= segment.length;
+            System.arraycopy(segment, 0, dictionary, pos, segment.length);
+        }
+        return new DeflateDictionary(dictionary);
+    }
+}
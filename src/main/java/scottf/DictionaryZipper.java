@@ -0,0 +1,153 @@
+package scottf;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+/**
+ * Compresses small messages with raw deflate primed with a {@link DeflateDictionary}.
+ * There is no gzip header and trailer, the output is the 4 byte dictionary id, the original length as a varint,
+ * then the raw deflate data, so a 300 byte message has 5 or 6 bytes of overhead instead of 18.
+ * <p>
+ * Deflaters and inflaters come from a {@link ZlibPool} for each call, so one instance can be used by many threads.
+ */
+public class DictionaryZipper {
+    private final DeflateDictionary dictionary;
+    private final ZlibPool pool;
+
+    /**
+     * Construct with its own pool at the default compression level
+     * @param dictionary the dictionary
+     */
+    public DictionaryZipper(DeflateDictionary dictionary) {
+        this(dictionary, new ZlibPool());
+    }
+
+    /**
+     * Construct
+     * @param dictionary the dictionary
+     * @param pool the pool of deflaters and inflaters
+     */
+    public DictionaryZipper(DeflateDictionary dictionary, ZlibPool pool) {
+        this.dictionary = dictionary;
+        this.pool = pool;
+    }
+
+    public DeflateDictionary getDictionary() {
+        return dictionary;
+    }
+
+    public byte[] zip(byte[] bytes) {
+        return zip(bytes, 0, bytes.length);
+    }
+
+    public byte[] zip(byte[] bytes, int off, int len) {
+        ByteArrayBuilder out = new ByteArrayBuilder(len / 2 + 16);
+        zip(bytes, off, len, out);
+        return out.toByteArray();
+    }
+
+    /**
+     * Compress the bytes and append the output to the builder
+     * @param bytes the bytes
+     * @param off the offset of the first byte
+     * @param len the number of bytes
+     * @param out the builder
+     * @return the number of bytes appended
+     */
+    public int zip(byte[] bytes, int off, int len, ByteArrayBuilder out) {
+        int start = out.length();
+        out.putInt(dictionary.getId()).putVarint(len);
+        Deflater deflater = pool.acquireDeflater();
+        try {
+            deflater.setDictionary(dictionary.getBytes());
+            deflater.setInput(bytes, off, len);
+            deflater.finish();
+            byte[] chunk = new byte[Math.min(8192, len + 64)];
+            while (!deflater.finished()) {
+                out.append(chunk, 0, deflater.deflate(chunk));
+            }
+        }
+        finally {
+            pool.release(deflater);
+        }
+        return out.length() - start;
+    }
+
+    /**
+     * The id of the dictionary compressed data needs, so the right zipper can be picked to unzip it
+     * @param zipped the compressed data
+     * @return the dictionary id
+     */
+    public static int dictionaryId(byte[] zipped) {
+        return (zipped[0] & 0xff) << 24 | (zipped[1] & 0xff) << 16 | (zipped[2] & 0xff) << 8 | (zipped[3] & 0xff);
+    }
+
+    public byte[] unzip(byte[] zipped) throws IOException {
+        return unzip(zipped, 0, zipped.length);
+    }
+
+    /**
+     * Decompress data made with the same dictionary
+     * @param zipped the compressed data
+     * @param off the offset of the data
+     * @param len the length of the data
+     * @return the original bytes
+     * @throws IOException if the data was made with a different dictionary or is corrupt
+     */
+    public byte[] unzip(byte[] zipped, int off, int len) throws IOException {
+        ByteCursor cursor = new ByteCursor(ByteBuffer.wrap(zipped, off, len));
+        int original;
+        try {
+            if (cursor.readInt() != dictionary.getId()) {
+                throw new ZipException("Data was compressed with a different dictionary.");
+            }
+            long varint = cursor.readVarint();
+            // a 10 byte varint can decode negative, and deflate can't expand more than about 1032 to 1
+            if (varint < 0 || varint > GrowthStrategy.MAX_CAPACITY || varint > (len - cursor.position()) * 1032L + 1032) {
+                throw new ZipException("Malformed length.");
+            }
+            original = (int)varint;
+        }
+        catch (BufferUnderflowException e) {
+            throw new EOFException("Unexpected end of data.");
+        }
+        catch (NumberFormatException e) {
+            throw new ZipException("Malformed length.");
+        }
+        byte[] result = new byte[original];
+        Inflater inflater = pool.acquireInflater();
+        try {
+            inflater.setDictionary(dictionary.getBytes());
+            inflater.setInput(zipped, off + cursor.position(), len - cursor.position());
+            int n = 0;
+            while (!inflater.finished()) {
+                int red = inflater.inflate(result, n, result.length - n);
+                n += red;
+                if (red == 0 && !inflater.finished()) {
+                    if (inflater.needsInput()) {
+                        throw new EOFException("Unexpected end of ZLIB input stream");
+                    }
+                    if (n == result.length) {
+                        throw new ZipException("Data is longer than its length says.");
+                    }
+                }
+            }
+            if (n != original) {
+                throw new ZipException("Data is shorter than its length says.");
+            }
+            return result;
+        }
+        catch (DataFormatException e) {
+            throw new ZipException(e.getMessage() == null ? "Invalid ZLIB data format" : e.getMessage());
+        }
+        finally {
+            pool.release(inflater);
+        }
+    }
+}
@@ -1,18 +1,36 @@
 package scottf;
 
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.DigestException;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.Base64;
 
 public class Digester {
-    private static final String DEFAULT_DIGEST_ALGORITHM = "SHA-256";
-    private static final Charset DEFAULT_STRING_ENCODING = StandardCharsets.UTF_8;
+    static final String DEFAULT_DIGEST_ALGORITHM = "SHA-256";
+    static final Charset DEFAULT_STRING_ENCODING = StandardCharsets.UTF_8;
+    public static final int READ_BUFFER_SIZE = 256 * 1024;
+    public static final int MAP_THRESHOLD = 1024 * 1024; // smaller files are cheaper to read than to map
+    // a mapping is only released when it is garbage collected, so map a bounded region at a time
+    private static final int MAP_REGION_SIZE = 64 * 1024 * 1024;
+
+    // one large direct buffer per thread, reused for every channel read
+    private static final ThreadLocal<ByteBuffer> READ_BUFFERS = ThreadLocal.withInitial(() -> ByteBuffer.allocateDirect(READ_BUFFER_SIZE));
 
     private final Charset stringCharset;
     private final Base64.Encoder encoder;
     private final MessageDigest digest;
+    private final byte[] digestBytes;
+    private final byte[] encoded;
+    private final int encodedLength;
 
     public Digester() throws NoSuchAlgorithmException {
         this(null, null, null);
@@ -31,6 +49,11 @@ public class Digester {
         this.encoder = encoder == null ? Base64.getUrlEncoder() : encoder;
         this.digest = MessageDigest.getInstance(
             digestAlgorithm == null ? DEFAULT_DIGEST_ALGORITHM : digestAlgorithm);
+
+        // scratch space so finishing and encoding the digest doesn't allocate
+        digestBytes = new byte[digest.getDigestLength()];
+        encodedLength = this.encoder.encode(digestBytes).length;
+        encoded = new byte[Math.max(encodedLength, digestBytes.length * 2)];
     }
 
     public Digester update(String input) {
@@ -48,6 +71,41 @@ public class Digester {
         return this;
     }
 
+    /**
+     * Update with the remaining bytes of the buffer, which are consumed
+     * @param input the buffer
+     * @return this (fluent)
+     */
+    public Digester update(ByteBuffer input) {
+        digest.update(input);
+        return this;
+    }
+
+    /**
+     * Update with the contents of a file. Large files are memory mapped a region at a time,
+     * small ones are read through a reusable direct buffer.
+     * A mapped region is not unmapped when the digest is done, only when it is garbage collected,
+     * so address space and page cache can stay held after this returns.
+     * @param path the file
+     * @return this (fluent)
+     * @throws IOException if the file cannot be read
+     */
+    public Digester update(Path path) throws IOException {
+        update(digest, path);
+        return this;
+    }
+
+    /**
+     * Update with everything read from the channel, through a reusable direct buffer. The channel is not closed.
+     * @param channel the channel, expected to be blocking
+     * @return this (fluent)
+     * @throws IOException if the channel cannot be read
+     */
+    public Digester update(ReadableByteChannel channel) throws IOException {
+        update(digest, channel);
+        return this;
+    }
+
     public Digester reset() {
         digest.reset();
         return this;
@@ -65,7 +123,161 @@ public class Digester {
         return reset().update(input, offset, len);
     }
 
+    public Digester reset(ByteBuffer input) {
+        return reset().update(input);
+    }
+
+    public Digester reset(Path path) throws IOException {
+        return reset().update(path);
+    }
+
+    /**
+     * Digest the contents of a file, replacing anything already updated
+     * @param path the file
+     * @return the digest
+     * @throws IOException if the file cannot be read
+     */
+    public byte[] digest(Path path) throws IOException {
+        return reset().update(path).digest.digest();
+    }
+
+    /**
+     * Digest everything read from the channel, replacing anything already updated. The channel is not closed.
+     * @param channel the channel, expected to be blocking
+     * @return the digest
+     * @throws IOException if the channel cannot be read
+     */
+    public byte[] digest(ReadableByteChannel channel) throws IOException {
+        return reset().update(channel).digest.digest();
+    }
+
+    public int getDigestLength() {
+        return digestBytes.length;
+    }
+
+    /**
+     * Finish the digest into the buffer, without allocating
+     * @param dst the buffer
+     * @param off the offset to write the digest at
+     * @return the number of bytes written, the digest length
+     */
+    public int digestInto(byte[] dst, int off) {
+        try {
+            return digest.digest(dst, off, dst.length - off);
+        }
+        catch (DigestException e) {
+            throw new IllegalArgumentException("Buffer is too small for the digest.", e);
+        }
+    }
+
     public String getDigestValue() {
-        return encoder.encodeToString(digest.digest());
+        return new String(encoded, 0, encodeDigest(), StandardCharsets.ISO_8859_1);
+    }
+
+    /**
+     * Finish the digest and write the encoded value into the buffer, without allocating
+     * @param dst the buffer
+     * @param off the offset to write the value at
+     * @return the number of bytes written
+     */
+    public int getDigestValue(byte[] dst, int off) {
+        checkRoom(encodedLength, dst, off);
+        return copyTo(encodeDigest(), dst, off);
+    }
+
+    /**
+     * Finish the digest and append the encoded value, without allocating
+     * @param out the builder or other appender
+     * @return this (fluent)
+     */
+    public Digester appendDigestValue(ByteAppender out) {
+        out.append(encoded, 0, encodeDigest());
+        return this;
+    }
+
+    public String getDigestHex() {
+        return new String(encoded, 0, hexDigest(), StandardCharsets.ISO_8859_1);
+    }
+
+    /**
+     * Finish the digest and write it as lower case hex into the buffer, without allocating
+     * @param dst the buffer
+     * @param off the offset to write the hex at
+     * @return the number of bytes written, twice the digest length
+     */
+    public int getDigestHex(byte[] dst, int off) {
+        checkRoom(digestBytes.length * 2, dst, off);
+        return copyTo(hexDigest(), dst, off);
+    }
+
+    /**
+     * Finish the digest and append it as lower case hex, without allocating
+     * @param out the builder or other appender
+     * @return this (fluent)
+     */
+    public Digester appendDigestHex(ByteAppender out) {
+        out.append(encoded, 0, hexDigest());
+        return this;
+    }
+
+    // finish the digest into the scratch digest bytes, then encode them into the scratch encoded bytes
+    private int encodeDigest() {
+        digestInto(digestBytes, 0);
+        return encoder.encode(digestBytes, encoded);
+    }
+
+    private int hexDigest() {
+        digestInto(digestBytes, 0);
+        int e = 0;
+        for (byte b : digestBytes) {
+            encoded[e++] = AsciiNumbers.HEX[(b >> 4) & 0xF];
+            encoded[e++] = AsciiNumbers.HEX[b & 0xF];
+        }
+        return e;
+    }
+
+    // checked before finishing, so a buffer that is too small doesn't lose the digest
+    private static void checkRoom(int len, byte[] dst, int off) {
+        if (off < 0 || len > dst.length - off) {
+            throw new IllegalArgumentException("Buffer is too small for the digest value.");
+        }
+    }
+
+    private int copyTo(int len, byte[] dst, int off) {
+        System.arraycopy(encoded, 0, dst, off, len);
+        return len;
+    }
+
+    static void update(MessageDigest digest, Path path) throws IOException {
+        update(digest, path, true);
+    }
+
+    // map is false when many files are digested, where mappings waiting on the collector would pile up
+    static void update(MessageDigest digest, Path path, boolean map) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (!map || size < MAP_THRESHOLD) {
+                update(digest, channel);
+                return;
+            }
+            for (long pos = 0; pos < size; pos += MAP_REGION_SIZE) {
+                MappedByteBuffer region = channel.map(FileChannel.MapMode.READ_ONLY, pos, Math.min(MAP_REGION_SIZE, size - pos));
+                digest.update(region);
+            }
+        }
+    }
+
+    static void update(MessageDigest digest, ReadableByteChannel channel) throws IOException {
+        ByteBuffer buffer = READ_BUFFERS.get();
+        buffer.clear();
+        while (channel.read(buffer) != -1) {
+            if (!buffer.hasRemaining()) {
+                buffer.flip();
+                digest.update(buffer);
+                buffer.clear();
+            }
+        }
+        buffer.flip();
+        digest.update(buffer);
     }
 }
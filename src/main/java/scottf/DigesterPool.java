@@ -0,0 +1,299 @@
+package scottf;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A thread safe digester. {@link Digester} wraps one {@link MessageDigest} so it can't be shared,
+ * and {@link MessageDigest#getInstance} looks up the provider every time it is called.
+ * This looks up the provider once and keeps a pool of digests, made by cloning a prototype,
+ * that are borrowed for each one shot digest and reset before they go back.
+ * <p>
+ * If the provider's digest can't be cloned, new digests come from {@link MessageDigest#getInstance} instead.
+ * Released digests beyond the maximum pooled are dropped.
+ */
+public class DigesterPool {
+    public static final int DEFAULT_MAX_POOLED = 2 * Runtime.getRuntime().availableProcessors();
+
+    private final MessageDigest prototype;
+    private final boolean cloneable;
+    private final Charset stringCharset;
+    private final Base64.Encoder encoder;
+    private final int maxPooled;
+    private final ArrayBlockingQueue<MessageDigest> digests;
+
+    private final LongAdder hits;
+    private final LongAdder misses;
+    private final LongAdder discards;
+
+    public DigesterPool() throws NoSuchAlgorithmException {
+        this(null, null, null, DEFAULT_MAX_POOLED);
+    }
+
+    public DigesterPool(String digestAlgorithm) throws NoSuchAlgorithmException {
+        this(digestAlgorithm, null, null, DEFAULT_MAX_POOLED);
+    }
+
+    /**
+     * Construct the pool
+     * @param digestAlgorithm the algorithm, null for the {@link Digester} default, SHA-256
+     * @param stringCharset the charset strings are encoded with, null for the {@link Digester} default, UTF-8
+     * @param encoder the encoder for digest values, null for the url encoder
+     * @param maxPooled the maximum number of digests kept for reuse
+     * @throws NoSuchAlgorithmException if no provider supports the algorithm
+     */
+    public DigesterPool(String digestAlgorithm, Charset stringCharset, Base64.Encoder encoder, int maxPooled) throws NoSuchAlgorithmException {
+        this.stringCharset = stringCharset == null ? Digester.DEFAULT_STRING_ENCODING : stringCharset;
+        this.encoder = encoder == null ? Base64.getUrlEncoder() : encoder;
+        this.maxPooled = Math.max(1, maxPooled);
+        prototype = MessageDigest.getInstance(
+            digestAlgorithm == null ? Digester.DEFAULT_DIGEST_ALGORITHM : digestAlgorithm);
+        digests = new ArrayBlockingQueue<>(this.maxPooled);
+        hits = new LongAdder();
+        misses = new LongAdder();
+        discards = new LongAdder();
+
+        boolean canClone;
+        try {
+            digests.offer((MessageDigest)prototype.clone());
+            canClone = true;
+        }
+        catch (CloneNotSupportedException e) {
+            canClone = false;
+        }
+        cloneable = canClone;
+    }
+
+    /**
+     * Get a digest ready for new input, from the pool if one is available, otherwise a new one
+     * @return the digest
+     */
+    public MessageDigest acquire() {
+        MessageDigest digest = digests.poll();
+        if (digest != null) {
+            hits.increment();
+            return digest;
+        }
+        misses.increment();
+        try {
+            if (cloneable) {
+                return (MessageDigest)prototype.clone();
+            }
+            return MessageDigest.getInstance(prototype.getAlgorithm(), prototype.getProvider());
+        }
+        catch (CloneNotSupportedException | NoSuchAlgorithmException e) {
+            // the prototype was made from the same algorithm and provider
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Return a digest to the pool. It is reset, or dropped if the pool is full.
+     * @param digest the digest, null is ignored
+     */
+    public void release(MessageDigest digest) {
+        if (digest == null) {
+            return;
+        }
+        digest.reset();
+        if (!digests.offer(digest)) {
+            discards.increment();
+        }
+    }
+
+    public byte[] digest(String input) {
+        return digest(input.getBytes(stringCharset));
+    }
+
+    public byte[] digest(byte[] input) {
+        return digest(input, 0, input.length);
+    }
+
+    public byte[] digest(byte[] input, int offset, int len) {
+        MessageDigest digest = acquire();
+        try {
+            digest.update(input, offset, len);
+            return digest.digest();
+        }
+        finally {
+            release(digest);
+        }
+    }
+
+    /**
+     * Digest the remaining bytes of the buffer, which are consumed
+     * @param input the buffer
+     * @return the digest
+     */
+    public byte[] digest(ByteBuffer input) {
+        MessageDigest digest = acquire();
+        try {
+            digest.update(input);
+            return digest.digest();
+        }
+        finally {
+            release(digest);
+        }
+    }
+
+    /**
+     * Digest the contents of a file, see {@link Digester#update(Path)}
+     * @param path the file
+     * @return the digest
+     * @throws IOException if the file cannot be read
+     */
+    public byte[] digest(Path path) throws IOException {
+        return digest(path, true);
+    }
+
+    private byte[] digest(Path path, boolean map) throws IOException {
+        MessageDigest digest = acquire();
+        try {
+            Digester.update(digest, path, map);
+            return digest.digest();
+        }
+        finally {
+            release(digest);
+        }
+    }
+
+    /**
+     * Digest many files on the common fork join pool
+     * @param paths the files
+     * @return the encoded digest value of each file, in the order of the collection
+     * @throws IOException if any file cannot be read
+     */
+    public Map<Path, String> digestAll(Collection<Path> paths) throws IOException {
+        return digestAll(paths, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Digest many files, one task per file. Reading files blocks,
+     * so for slow or network storage an executor with more threads than cores keeps more reads in flight.
+     * Files are always read through a direct buffer, never memory mapped,
+     * since mappings are only released by the garbage collector and would pile up across many files.
+     * @param paths the files
+     * @param executor the executor that runs the tasks
+     * @return the encoded digest value of each file, in the order of the collection
+     * @throws IOException if any file cannot be read
+     */
+    public Map<Path, String> digestAll(Collection<Path> paths, ExecutorService executor) throws IOException {
+        List<Future<String>> futures = new ArrayList<>(paths.size());
+        for (Path path : paths) {
+            futures.add(executor.submit(() -> encoder.encodeToString(digest(path, false))));
+        }
+        Map<Path, String> values = new LinkedHashMap<>();
+        int x = 0;
+        try {
+            for (Path path : paths) {
+                values.put(path, futures.get(x++).get());
+            }
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted digesting files.", e);
+        }
+        catch (ExecutionException e) {
+            // a fork join pool can wrap the task's exception again
+            for (Throwable t = e.getCause(); t != null; t = t.getCause()) {
+                if (t instanceof IOException) {
+                    throw (IOException)t;
+                }
+            }
+            throw new IOException(e.getCause());
+        }
+        finally {
+            for (Future<String> f : futures) {
+                f.cancel(false);
+            }
+        }
+        return values;
+    }
+
+    public String getDigestValue(String input) {
+        return encoder.encodeToString(digest(input));
+    }
+
+    public String getDigestValue(byte[] input) {
+        return encoder.encodeToString(digest(input));
+    }
+
+    public String getDigestValue(byte[] input, int offset, int len) {
+        return encoder.encodeToString(digest(input, offset, len));
+    }
+
+    public String getDigestValue(ByteBuffer input) {
+        return encoder.encodeToString(digest(input));
+    }
+
+    public String getDigestValue(Path path) throws IOException {
+        return encoder.encodeToString(digest(path));
+    }
+
+    public String getAlgorithm() {
+        return prototype.getAlgorithm();
+    }
+
+    public int getMaxPooled() {
+        return maxPooled;
+    }
+
+    /**
+     * The number of digests currently in the pool
+     * @return the count
+     */
+    public int size() {
+        return digests.size();
+    }
+
+    /**
+     * The number of acquires satisfied by the pool
+     * @return the count
+     */
+    public long getHits() {
+        return hits.sum();
+    }
+
+    /**
+     * The number of acquires that had to create a new digest
+     * @return the count
+     */
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    /**
+     * The number of released digests dropped because the pool was full
+     * @return the count
+     */
+    public long getDiscards() {
+        return discards.sum();
+    }
+
+    @Override
+    public String toString() {
+        return "DigesterPool{" +
+            "algorithm=" + getAlgorithm() +
+            ", maxPooled=" + maxPooled +
+            ", hits=" + getHits() +
+            ", misses=" + getMisses() +
+            ", discards=" + getDiscards() +
+            '}';
+    }
+}
@@ -1,45 +1,175 @@
 package scottf;
 
 import java.io.*;
-import java.util.zip.GZIPInputStream;
-import java.util.zip.GZIPOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
 
-public class GZipper {
+/**
+ * Gzip into a byte array. The gzip header and trailer are written here and the data is raw deflated,
+ * so the {@link Deflater} is reset and reused by {@link #clear} instead of re-created,
+ * or comes from a {@link ZlibPool} and goes back to it on {@link #finish}.
+ * The output is the same as {@link java.util.zip.GZIPOutputStream} writes in current JDKs.
+ * <p>
+ * In adaptive mode the first {@value #ADAPTIVE_SAMPLE_SIZE} bytes are held back and the entropy of the bytes is
+ * estimated to pick the level, see {@link Level}. Data that is already compressed or encrypted is stored instead
+ * of deflated, which costs almost no cpu and adds only a few bytes, the output is still gzip.
+ */
+public class GZipper implements Closeable {
     public static final int DEFAULT_READ_BLOCK_SIZE = 1024;
+    public static final int DEFAULT_CHANNEL_BUFFER_SIZE = 64 * 1024;
+    private static final int MAP_REGION_SIZE = 1 << 30;
+    private static final int GZIP_MAGIC = 0x8b1f;
+    private static final int CHUNK_SIZE = 8192;
+    public static final int ADAPTIVE_SAMPLE_SIZE = 4096;
+    static final byte[] HEADER = {
+        (byte)GZIP_MAGIC, (byte)(GZIP_MAGIC >> 8), Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, (byte)0xff // no flags, mtime, xfl, os unknown
+    };
+
+    // header flags
+    private static final int FHCRC = 2;
+    private static final int FEXTRA = 4;
+    private static final int FNAME = 8;
+    private static final int FCOMMENT = 16;
+
+    // the in and out buffers for streaming between channels, kept per thread for reuse
+    private static final ThreadLocal<ByteBuffer[]> CHANNEL_BUFFERS = new ThreadLocal<>();
+
+    private final ZlibPool pool;
     private final ByteArrayBuilder bab;
-    private final OutputStream out;
-    private GZIPOutputStream zipOut;
+    private final CRC32 crc;
+    private final byte[] chunk;
+    private final boolean adaptive;
+    private final ByteArrayBuilder sample;
+    private Deflater deflater;
+    private boolean finished;
+    private boolean complete; // finished with a trailer, not just closed
+    private Level level;
+    private long lastIn;
+    private int lastOut;
+
+    /**
+     * The levels adaptive mode chooses from
+     */
+    public enum Level {
+        /** the data looks compressed or random, it is stored as is */
+        STORE(Deflater.NO_COMPRESSION),
+        /** the data compresses some, it is deflated as fast as possible */
+        FAST(Deflater.BEST_SPEED),
+        /** the data compresses well, it is deflated at the default level */
+        DEFAULT(Deflater.DEFAULT_COMPRESSION);
+
+        private final int zlibLevel;
+
+        Level(int zlibLevel) {
+            this.zlibLevel = zlibLevel;
+        }
+
+        public int getZlibLevel() {
+            return zlibLevel;
+        }
+    }
 
     public GZipper() throws IOException {
-        bab = new ByteArrayBuilder();
-        out = new OutputStream() {
-            @Override
-            public void write(int b) throws IOException {
-                bab.append(b);
-            }
+        this(null, false);
+    }
 
-            @Override
-            public void write(byte[] b) throws IOException {
-                bab.append(b);
-            }
+    /**
+     * Construct a GZipper that keeps its own deflater
+     * @param adaptive whether to choose the level from a sample of the data
+     */
+    public GZipper(boolean adaptive) {
+        this(null, adaptive);
+    }
 
-            @Override
-            public void write(byte[] b, int off, int len) throws IOException {
-                bab.append(b, off, len);
-            }
-        };
-        clear();
+    /**
+     * Construct a GZipper that takes its deflater from the pool
+     * @param pool the pool, or null for the GZipper to keep its own deflater
+     */
+    public GZipper(ZlibPool pool) {
+        this(pool, false);
+    }
+
+    /**
+     * Construct a GZipper that takes its deflater from the pool
+     * @param pool the pool, or null for the GZipper to keep its own deflater
+     * @param adaptive whether to choose the level from a sample of the data
+     */
+    public GZipper(ZlibPool pool, boolean adaptive) {
+        this.pool = pool;
+        this.adaptive = adaptive;
+        sample = adaptive ? new ByteArrayBuilder(ADAPTIVE_SAMPLE_SIZE) : null;
+        bab = new ByteArrayBuilder();
+        crc = new CRC32();
+        chunk = new byte[CHUNK_SIZE];
+        start();
     }
 
     public GZipper clear() throws IOException {
-        bab.clear();
-        zipOut = new GZIPOutputStream(out);
+        start();
         return this;
     }
 
+    // ready the deflater and write the header for new output
+    private void start() {
+        bab.clear();
+        crc.reset();
+        if (deflater == null) {
+            deflater = pool == null ? new Deflater(Deflater.DEFAULT_COMPRESSION, true) : pool.acquireDeflater();
+        }
+        else {
+            deflater.reset();
+            if (pool == null) {
+                deflater.setLevel(Deflater.DEFAULT_COMPRESSION);
+            }
+        }
+        if (adaptive) {
+            sample.clear();
+            level = null;
+        }
+        finished = false;
+        complete = false;
+        bab.append(HEADER);
+    }
+
+    /**
+     * Finish the gzip output. Calling finish again before a clear returns the same bytes.
+     * @return the gzip bytes
+     * @throws IOException if the GZipper was closed before it was finished
+     */
     public byte[] finish() throws IOException {
-        zipOut.flush();
-        zipOut.finish();
+        if (complete) {
+            return bab.toByteArray();
+        }
+        checkNotFinished();
+        if (adaptive && level == null) {
+            decide();
+        }
+        deflater.finish();
+        while (!deflater.finished()) {
+            deflate();
+        }
+        bab.putIntLE((int)crc.getValue()).putIntLE((int)deflater.getBytesRead());
+        lastIn = deflater.getBytesRead();
+        lastOut = bab.length();
+        finished = true;
+        complete = true;
+        if (pool != null) {
+            pool.release(deflater);
+            deflater = null;
+        }
         return bab.toByteArray();
     }
 
@@ -48,31 +178,284 @@ public class GZipper {
     }
 
     public GZipper zip(byte[] bytes, int off, int len) throws IOException {
-        zipOut.write(bytes, off, len);
+        checkNotFinished();
+        if (adaptive && level == null) {
+            // hold back only up to a full sample, the rest of a big first call goes straight to the deflater
+            int taken = Math.min(len, ADAPTIVE_SAMPLE_SIZE - sample.length());
+            sample.append(bytes, off, taken);
+            if (sample.length() < ADAPTIVE_SAMPLE_SIZE) {
+                return this;
+            }
+            decide();
+            off += taken;
+            len -= taken;
+        }
+        input(bytes, off, len);
         return this;
     }
 
+    // choose the level from the sample, then deflate the sample
+    private void decide() {
+        level = chooseLevel(sample.internalArray(), 0, sample.length());
+        deflater.setLevel(level.getZlibLevel());
+        input(sample.internalArray(), 0, sample.length());
+        sample.clear();
+    }
+
+    // the capacity of the sample builder, it never grows past a sample
+    int sampleCapacity() {
+        return sample == null ? 0 : sample.capacity();
+    }
+
+    private void input(byte[] bytes, int off, int len) {
+        crc.update(bytes, off, len);
+        deflater.setInput(bytes, off, len);
+        while (!deflater.needsInput()) {
+            deflate();
+        }
+    }
+
+    /**
+     * The level adaptive mode chose for the current data
+     * @return the level, or null if not adaptive or not chosen yet
+     */
+    public Level getLevel() {
+        return level;
+    }
+
+    /**
+     * The size of the last finished gzip output compared to the size of the data, smaller is better
+     * @return the ratio, or NaN if nothing has been finished
+     */
+    public double getRatio() {
+        return lastIn == 0 ? Double.NaN : (double)lastOut / lastIn;
+    }
+
+    /**
+     * Estimate how compressible data is from how evenly its byte values are spread, in bits per byte.
+     * 8 is random, already compressed or encrypted data is close to that, text is usually 4 to 5.
+     * @param bytes the bytes
+     * @param off the offset of the first byte
+     * @param len the number of bytes
+     * @return the entropy, 0 to 8
+     */
+    public static double entropy(byte[] bytes, int off, int len) {
+        if (len == 0) {
+            return 0;
+        }
+        int[] counts = new int[256];
+        for (int x = off; x < off + len; x++) {
+            counts[bytes[x] & 0xff]++;
+        }
+        double bits = 0;
+        for (int count : counts) {
+            if (count > 0) {
+                double p = (double)count / len;
+                bits -= p * Math.log(p);
+            }
+        }
+        return bits / Math.log(2);
+    }
+
+    /**
+     * Choose the level for data from the entropy of a sample of it.
+     * Samples of a few K or more give the best estimate, a short sample can't show an entropy near 8.
+     * @param bytes the bytes
+     * @param off the offset of the first byte
+     * @param len the number of bytes
+     * @return the level
+     */
+    public static Level chooseLevel(byte[] bytes, int off, int len) {
+        double entropy = entropy(bytes, off, len);
+        if (entropy > 7.5) {
+            return Level.STORE;
+        }
+        return entropy > 6.0 ? Level.FAST : Level.DEFAULT;
+    }
+
+    private void deflate() {
+        int n = deflater.deflate(chunk, 0, chunk.length);
+        if (n > 0) {
+            bab.append(chunk, 0, n);
+        }
+    }
+
+    private void checkNotFinished() throws IOException {
+        if (finished) {
+            throw new IOException("write beyond end of stream");
+        }
+    }
+
+    /**
+     * Give the deflater back to the pool, or end it if this GZipper has its own.
+     * The GZipper can still be used, {@link #clear} gets a deflater again.
+     */
+    @Override
+    public void close() {
+        if (deflater != null) {
+            if (pool == null) {
+                deflater.end();
+            }
+            else {
+                pool.release(deflater);
+            }
+            deflater = null;
+        }
+        finished = true;
+    }
+
+    /**
+     * Unzip gzip data using an inflater from the pool. Members that follow the first are unzipped too.
+     * The crc and size in each trailer are checked.
+     * @param bytes the gzip data
+     * @param pool the pool
+     * @return the unzipped bytes
+     * @throws IOException if the data is not gzip or is corrupt
+     */
+    public static byte[] unzip(byte[] bytes, ZlibPool pool) throws IOException {
+        Inflater inflater = pool.acquireInflater();
+        try {
+            return inflate(bytes, inflater, bytes.length * 2);
+        }
+        finally {
+            pool.release(inflater);
+        }
+    }
+
+    // Inflate every member straight into the result array. The size in the last trailer is the exact
+    // size of a single member, so usually the result is the only allocation and is never copied.
+    private static byte[] inflate(byte[] bytes, Inflater inflater, int projectedSize) throws IOException {
+        long size = projectedSize;
+        if (bytes.length >= HEADER.length + 8) {
+            // deflate can't expand more than about 1032 to 1, so a corrupt size doesn't allocate something huge
+            size = Math.min(getIntLE(bytes, bytes.length - 4) & 0xffffffffL, bytes.length * 1032L);
+        }
+        byte[] out = new byte[(int)Math.max(0, Math.min(size, GrowthStrategy.MAX_CAPACITY))];
+        int len = 0;
+        CRC32 crc = new CRC32();
+        int pos = skipHeader(bytes, 0);
+        try {
+            while (true) {
+                inflater.reset();
+                crc.reset();
+                inflater.setInput(bytes, pos, bytes.length - pos);
+                int memberStart = len;
+                while (!inflater.finished()) {
+                    if (len == out.length) {
+                        if (len == GrowthStrategy.MAX_CAPACITY) {
+                            throw new IOException("Unzipped data is too big for an array.");
+                        }
+                        out = Arrays.copyOf(out, (int)Math.min(GrowthStrategy.MAX_CAPACITY, Math.max(1024, len * 2L)));
+                    }
+                    int n = inflater.inflate(out, len, out.length - len);
+                    len += n;
+                    if (n == 0) {
+                        if (inflater.needsInput()) {
+                            throw new EOFException("Unexpected end of ZLIB input stream");
+                        }
+                        if (inflater.needsDictionary()) {
+                            throw new ZipException("Deflate data needs a preset dictionary");
+                        }
+                    }
+                }
+                crc.update(out, memberStart, len - memberStart);
+                pos = bytes.length - inflater.getRemaining();
+                if (pos + 8 > bytes.length) {
+                    throw new EOFException("Unexpected end of GZIP trailer");
+                }
+                if (getIntLE(bytes, pos) != (int)crc.getValue() || getIntLE(bytes, pos + 4) != (int)inflater.getBytesWritten()) {
+                    throw new ZipException("Corrupt GZIP trailer");
+                }
+                pos += 8;
+                if (pos == bytes.length) {
+                    break;
+                }
+                try {
+                    pos = skipHeader(bytes, pos);
+                }
+                catch (ZipException | EOFException e) {
+                    break; // like GZIPInputStream, bytes after the last member that aren't another member are ignored
+                }
+            }
+        }
+        catch (DataFormatException e) {
+            throw new ZipException(e.getMessage() == null ? "Invalid ZLIB data format" : e.getMessage());
+        }
+        return len == out.length ? out : Arrays.copyOf(out, len);
+    }
+
+    // check the gzip header that starts at pos and return the position of the deflate data after it
+    private static int skipHeader(byte[] bytes, int pos) throws IOException {
+        if (bytes.length - pos < HEADER.length || (bytes[pos] & 0xff | (bytes[pos + 1] & 0xff) << 8) != GZIP_MAGIC) {
+            throw new ZipException("Not in GZIP format");
+        }
+        if (bytes[pos + 2] != Deflater.DEFLATED) {
+            throw new ZipException("Unsupported compression method");
+        }
+        int flags = bytes[pos + 3] & 0xff;
+        pos += HEADER.length; // magic, method, flags, mtime, xfl, os
+        try {
+            if ((flags & FEXTRA) == FEXTRA) {
+                pos += 2 + (bytes[pos] & 0xff | (bytes[pos + 1] & 0xff) << 8);
+            }
+            if ((flags & FNAME) == FNAME) {
+                while (bytes[pos++] != 0) {}
+            }
+            if ((flags & FCOMMENT) == FCOMMENT) {
+                while (bytes[pos++] != 0) {}
+            }
+            if ((flags & FHCRC) == FHCRC) {
+                pos += 2;
+            }
+        }
+        catch (ArrayIndexOutOfBoundsException e) {
+            throw new EOFException("Unexpected end of GZIP header");
+        }
+        if (pos > bytes.length) {
+            throw new EOFException("Unexpected end of GZIP header");
+        }
+        return pos;
+    }
+
+    private static int getIntLE(byte[] bytes, int pos) {
+        return (bytes[pos] & 0xff) | (bytes[pos + 1] & 0xff) << 8 | (bytes[pos + 2] & 0xff) << 16 | (bytes[pos + 3] & 0xff) << 24;
+    }
+
     public static byte[] unzip(byte[] bytes) throws IOException {
-        return unzip(bytes, DEFAULT_READ_BLOCK_SIZE, bytes.length * 2);
+        return unzip(bytes, bytes.length * 2);
     }
 
+    /**
+     * Unzip gzip data. Members that follow the first are unzipped too. The crc and size in each trailer are checked.
+     * Bytes after the last member that don't start another member are ignored, as GZIPInputStream does.
+     * The data is inflated straight into the result, sized from the gzip trailer when it has one.
+     * @param bytes the gzip data
+     * @param projectedUnzippedSize the starting size of the result if the data is too short to have a trailer
+     * @return the unzipped bytes
+     * @throws IOException if the data is not gzip or is corrupt
+     */
     public static byte[] unzip(byte[] bytes, int projectedUnzippedSize) throws IOException {
-        return unzip(bytes, DEFAULT_READ_BLOCK_SIZE, projectedUnzippedSize);
+        Inflater inflater = new Inflater(true);
+        try {
+            return inflate(bytes, inflater, projectedUnzippedSize);
+        }
+        finally {
+            inflater.end();
+        }
     }
 
+    /**
+     * Unzip gzip data
+     * @param bytes the gzip data
+     * @param readBlockSize ignored, the data is inflated straight into the result instead of read in blocks
+     * @param projectedUnzippedSize the starting size of the result if the data is too short to have a trailer
+     * @return the unzipped bytes
+     * @throws IOException if the data is not gzip or is corrupt
+     * @deprecated the read block size is no longer used, use {@link #unzip(byte[], int)}
+     */
+    @Deprecated
     public static byte[] unzip(byte[] bytes, int readBlockSize, int projectedUnzippedSize) throws IOException {
-        ByteArrayBuilder bab = new ByteArrayBuilder(projectedUnzippedSize);
-        GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(bytes));
-        byte[] buffer = new byte[readBlockSize];
-        int red = in.read(buffer, 0, readBlockSize);
-        while (red > 0) {
-            // track what we got from the unzip
-            bab.append(buffer, 0, red);
-
-            // read more if we got a full read last time, otherwise, that's the last of the bytes
-            red = red == readBlockSize ? in.read(buffer, 0, readBlockSize) : -1;
-        }
-        return bab.toByteArray();
+        return unzip(bytes, projectedUnzippedSize);
     }
 
     public static void unzip(byte[] bytes, OutputStream out) throws IOException {
@@ -87,32 +470,329 @@ public class GZipper {
         unzip(inputStream, output, DEFAULT_READ_BLOCK_SIZE);
     }
 
+    /**
+     * Unzip everything in the input stream to the output stream, reading until the end of the input,
+     * not just until a short read. Members that follow the first are unzipped too.
+     * GZIPInputStream is not used since it only looks for another member if the source says more is available.
+     * @param inputStream the gzip input
+     * @param output the output
+     * @param readBlockSize the size of the buffers
+     * @throws IOException if the input is not gzip or is corrupt, or reading or writing fails
+     */
     public static void unzip(InputStream inputStream, OutputStream output, int readBlockSize) throws IOException {
-        GZIPInputStream in = new GZIPInputStream(inputStream);
-        byte[] buffer = new byte[readBlockSize];
-        int red = in.read(buffer, 0, readBlockSize);
-        while (red > 0) {
-            // track what we got from the unzip
-            output.write(buffer, 0, red);
+        unzip(Channels.newChannel(inputStream), Channels.newChannel(output), Math.max(readBlockSize, HEADER.length + 8));
+    }
 
-            // read more if we got a full read last time, otherwise, that's the last of the bytes
-            red = red == readBlockSize ? in.read(buffer, 0, readBlockSize) : -1;
+    /**
+     * Gzip a file on many cores, see {@link ParallelGZipper}
+     * @param f the file
+     * @return the gzipped bytes
+     * @throws IOException if the file cannot be read
+     */
+    public static byte[] zipParallel(File f) throws IOException {
+        try (ParallelGZipper pgz = new ParallelGZipper()) {
+            return pgz.zip(f);
         }
     }
 
     public static byte[] zip(File f) throws IOException {
         byte[] buffer = new byte[DEFAULT_READ_BLOCK_SIZE];
 
-        GZipper gz = new GZipper();
-        try (FileInputStream in = new FileInputStream(f)) {
-            // read the first chunk
-            int red = in.read(buffer);
-            while (red > 0) {
+        try (GZipper gz = new GZipper(); FileInputStream in = new FileInputStream(f)) {
+            int red;
+            while ((red = in.read(buffer)) != -1) {
                 gz.zip(buffer, 0, red);
-                // read more if we got a full read last time, otherwise, that's the last of the bytes
-                red = red == DEFAULT_READ_BLOCK_SIZE ? in.read(buffer) : -1;
+            }
+            return gz.finish();
+        }
+    }
+
+    /**
+     * Gzip a file to a file, streaming with constant memory
+     * @param in the file to gzip
+     * @param out the gzip file, created or truncated
+     * @return the number of bytes read from the input
+     * @throws IOException if reading or writing fails
+     */
+    public static long zip(Path in, Path out) throws IOException {
+        return zip(in, out, DEFAULT_CHANNEL_BUFFER_SIZE, false);
+    }
+
+    /**
+     * Gzip a file to a file, streaming with constant memory
+     * @param in the file to gzip
+     * @param out the gzip file, created or truncated
+     * @param bufferSize the size of the direct buffers
+     * @param mapInput whether to memory map the input and deflate straight from the mapping instead of reading it
+     * @return the number of bytes read from the input
+     * @throws IOException if reading or writing fails
+     */
+    public static long zip(Path in, Path out, int bufferSize, boolean mapInput) throws IOException {
+        try (FileChannel inChannel = FileChannel.open(in, StandardOpenOption.READ);
+             FileChannel outChannel = FileChannel.open(out, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE))
+        {
+            if (!mapInput) {
+                return zip(inChannel, outChannel, bufferSize);
+            }
+            ChannelDeflate cd = new ChannelDeflate(outChannel, channelBuffers(bufferSize)[1]);
+            try {
+                long size = inChannel.size();
+                for (long pos = 0; pos < size; pos += MAP_REGION_SIZE) {
+                    MappedByteBuffer region = inChannel.map(FileChannel.MapMode.READ_ONLY, pos, Math.min(MAP_REGION_SIZE, size - pos));
+                    cd.input(region);
+                }
+                return cd.finish();
+            }
+            finally {
+                cd.deflater.end();
+            }
+        }
+    }
+
+    /**
+     * Gzip everything read from the channel to the other channel through reusable direct buffers.
+     * Neither channel is closed.
+     * @param in the channel to read, expected to be blocking
+     * @param out the channel to write the gzip to
+     * @param bufferSize the size of the direct buffers
+     * @return the number of bytes read from the input
+     * @throws IOException if reading or writing fails
+     */
+    public static long zip(ReadableByteChannel in, WritableByteChannel out, int bufferSize) throws IOException {
+        ByteBuffer[] buffers = channelBuffers(bufferSize);
+        ByteBuffer inBuf = buffers[0];
+        ChannelDeflate cd = new ChannelDeflate(out, buffers[1]);
+        try {
+            inBuf.clear();
+            while (in.read(inBuf) != -1) {
+                inBuf.flip();
+                cd.input(inBuf);
+                inBuf.clear();
+            }
+            return cd.finish();
+        }
+        finally {
+            cd.deflater.end();
+        }
+    }
+
+    /**
+     * Gunzip a file to a file, streaming with constant memory
+     * @param in the gzip file
+     * @param out the file to write, created or truncated
+     * @return the number of bytes written
+     * @throws IOException if the input is not gzip or is corrupt, or reading or writing fails
+     */
+    public static long unzip(Path in, Path out) throws IOException {
+        try (FileChannel inChannel = FileChannel.open(in, StandardOpenOption.READ);
+             FileChannel outChannel = FileChannel.open(out, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE))
+        {
+            return unzip(inChannel, outChannel, DEFAULT_CHANNEL_BUFFER_SIZE);
+        }
+    }
+
+    public static long unzip(ReadableByteChannel in, WritableByteChannel out) throws IOException {
+        return unzip(in, out, DEFAULT_CHANNEL_BUFFER_SIZE);
+    }
+
+    /**
+     * Gunzip everything read from the channel to the other channel through reusable direct buffers.
+     * Members that follow the first are unzipped too. The crc and size in each trailer are checked.
+     * Bytes after the last member that don't start another member are ignored, as GZIPInputStream does.
+     * Neither channel is closed.
+     * @param in the channel to read the gzip from, expected to be blocking
+     * @param out the channel to write to
+     * @param bufferSize the size of the direct buffers
+     * @return the number of bytes written
+     * @throws IOException if the input is not gzip or is corrupt, or reading or writing fails
+     */
+    public static long unzip(ReadableByteChannel in, WritableByteChannel out, int bufferSize) throws IOException {
+        ByteBuffer[] buffers = channelBuffers(bufferSize);
+        ByteBuffer inBuf = buffers[0];
+        ByteBuffer outBuf = buffers[1];
+        inBuf.clear().flip(); // kept ready to read from
+        outBuf.clear();
+        Inflater inflater = new Inflater(true);
+        CRC32 crc = new CRC32();
+        long total = 0;
+        try {
+            skipHeader(in, inBuf);
+            while (true) {
+                inflater.reset();
+                crc.reset();
+                inflater.setInput(inBuf);
+                while (!inflater.finished()) {
+                    if (inflater.needsInput()) {
+                        if (fill(in, inBuf) == -1) {
+                            throw new EOFException("Unexpected end of ZLIB input stream");
+                        }
+                        inflater.setInput(inBuf);
+                    }
+                    else if (inflater.needsDictionary()) {
+                        throw new ZipException("Deflate data needs a preset dictionary");
+                    }
+                    inflater.inflate(outBuf);
+                    if (!outBuf.hasRemaining()) {
+                        drain(out, outBuf, crc);
+                    }
+                }
+                drain(out, outBuf, crc);
+                total += inflater.getBytesWritten();
+
+                ensure(in, inBuf, 8, "Unexpected end of GZIP trailer");
+                inBuf.order(ByteOrder.LITTLE_ENDIAN);
+                if (inBuf.getInt() != (int)crc.getValue() || inBuf.getInt() != (int)inflater.getBytesWritten()) {
+                    throw new ZipException("Corrupt GZIP trailer");
+                }
+                if (!inBuf.hasRemaining() && fill(in, inBuf) <= 0) {
+                    break;
+                }
+                try {
+                    skipHeader(in, inBuf);
+                }
+                catch (ZipException | EOFException e) {
+                    break; // like GZIPInputStream, bytes after the last member that aren't another member are ignored
+                }
+            }
+            return total;
+        }
+        catch (DataFormatException e) {
+            throw new ZipException(e.getMessage() == null ? "Invalid ZLIB data format" : e.getMessage());
+        }
+        finally {
+            inflater.end();
+        }
+    }
+
+    // check the gzip header at the position of the buffer and leave the buffer positioned after it
+    private static void skipHeader(ReadableByteChannel in, ByteBuffer inBuf) throws IOException {
+        String eof = "Unexpected end of GZIP header";
+        ensure(in, inBuf, HEADER.length, eof);
+        inBuf.order(ByteOrder.LITTLE_ENDIAN);
+        if ((inBuf.getShort() & 0xffff) != GZIP_MAGIC) {
+            throw new ZipException("Not in GZIP format");
+        }
+        if (inBuf.get() != Deflater.DEFLATED) {
+            throw new ZipException("Unsupported compression method");
+        }
+        int flags = inBuf.get() & 0xff;
+        inBuf.position(inBuf.position() + 6); // mtime, xfl, os
+        if ((flags & FEXTRA) == FEXTRA) {
+            ensure(in, inBuf, 2, eof);
+            skip(in, inBuf, inBuf.getShort() & 0xffff, eof);
+        }
+        if ((flags & FNAME) == FNAME) {
+            do {
+                ensure(in, inBuf, 1, eof);
+            } while (inBuf.get() != 0);
+        }
+        if ((flags & FCOMMENT) == FCOMMENT) {
+            do {
+                ensure(in, inBuf, 1, eof);
+            } while (inBuf.get() != 0);
+        }
+        if ((flags & FHCRC) == FHCRC) {
+            skip(in, inBuf, 2, eof);
+        }
+    }
+
+    private static void skip(ReadableByteChannel in, ByteBuffer inBuf, int n, String eof) throws IOException {
+        while (n > 0) {
+            ensure(in, inBuf, 1, eof);
+            int skip = Math.min(n, inBuf.remaining());
+            inBuf.position(inBuf.position() + skip);
+            n -= skip;
+        }
+    }
+
+    private static void ensure(ReadableByteChannel in, ByteBuffer inBuf, int n, String eof) throws IOException {
+        while (inBuf.remaining() < n) {
+            if (fill(in, inBuf) == -1) {
+                throw new EOFException(eof);
+            }
+        }
+    }
+
+    // keep what hasn't been read yet and read more after it, the buffer stays ready to read from
+    private static int fill(ReadableByteChannel in, ByteBuffer inBuf) throws IOException {
+        inBuf.compact();
+        int n = in.read(inBuf);
+        inBuf.flip();
+        return n;
+    }
+
+    private static void drain(WritableByteChannel out, ByteBuffer outBuf, CRC32 crc) throws IOException {
+        outBuf.flip();
+        if (crc != null) {
+            crc.update(outBuf);
+            outBuf.rewind();
+        }
+        while (outBuf.hasRemaining()) {
+            out.write(outBuf);
+        }
+        outBuf.clear();
+    }
+
+    private static ByteBuffer[] channelBuffers(int bufferSize) {
+        if (bufferSize < HEADER.length + 8) {
+            throw new IllegalArgumentException("Buffer size is too small.");
+        }
+        ByteBuffer[] buffers = CHANNEL_BUFFERS.get();
+        if (buffers == null || buffers[0].capacity() != bufferSize) {
+            buffers = new ByteBuffer[]{ByteBuffer.allocateDirect(bufferSize), ByteBuffer.allocateDirect(bufferSize)};
+            CHANNEL_BUFFERS.set(buffers);
+        }
+        return buffers;
+    }
+
+    // deflates buffers of input into the out buffer, writing it to the channel whenever it fills
+    private static class ChannelDeflate {
+        private static final byte[] NO_INPUT = new byte[0];
+
+        private final WritableByteChannel out;
+        private final ByteBuffer outBuf;
+        private final Deflater deflater;
+        private final CRC32 crc;
+
+        ChannelDeflate(WritableByteChannel out, ByteBuffer outBuf) {
+            this.out = out;
+            this.outBuf = outBuf;
+            deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+            crc = new CRC32();
+            outBuf.clear();
+            outBuf.put(HEADER);
+        }
+
+        void input(ByteBuffer src) throws IOException {
+            int start = src.position();
+            crc.update(src);
+            src.position(start);
+            deflater.setInput(src);
+            while (!deflater.needsInput()) {
+                deflate();
+            }
+            deflater.setInput(NO_INPUT); // let go of the buffer, the caller reuses it
+        }
+
+        long finish() throws IOException {
+            deflater.finish();
+            while (!deflater.finished()) {
+                deflate();
+            }
+            if (outBuf.remaining() < 8) {
+                drain(out, outBuf, null);
+            }
+            outBuf.order(ByteOrder.LITTLE_ENDIAN);
+            outBuf.putInt((int)crc.getValue()).putInt((int)deflater.getBytesRead());
+            drain(out, outBuf, null);
+            return deflater.getBytesRead();
+        }
+
+        private void deflate() throws IOException {
+            deflater.deflate(outBuf);
+            if (!outBuf.hasRemaining()) {
+                drain(out, outBuf, null);
             }
         }
-        return gz.finish();
     }
 }
@@ -0,0 +1,84 @@
+package scottf;
+
+/**
+ * Decides how big a {@link ByteArrayBuilder} buffer becomes when it has to grow.
+ */
+@FunctionalInterface
+public interface GrowthStrategy {
+    /**
+     * The largest capacity any of the strategies will ask for, some VMs reserve header words in an array
+     */
+    int MAX_CAPACITY = Integer.MAX_VALUE - 8;
+
+    /**
+     * Compute the new capacity
+     * @param currentCapacity the current capacity of the buffer
+     * @param required the capacity that is required, the current length plus the bytes needed
+     * @return the new capacity, must be at least required
+     */
+    int newCapacity(int currentCapacity, int required);
+
+    /**
+     * Grow to the next multiple of the step past what is required,
+     * the same as the builder's default allocation size behavior
+     * @param step the step
+     * @return the strategy
+     */
+    static GrowthStrategy fixed(int step) {
+        int s = Math.max(1, step);
+        return (currentCapacity, required) -> cap(((required + (long)s) / s) * s, required);
+    }
+
+    /**
+     * Double the capacity, or grow to what is required if that is more.
+     * The number of resizes is logarithmic in the final size.
+     * @return the strategy
+     */
+    static GrowthStrategy doubling() {
+        return (currentCapacity, required) -> cap(Math.max(currentCapacity * 2L, required), required);
+    }
+
+    /**
+     * Double the capacity, but never grow by more than the maximum step at once,
+     * or grow to what is required if that is more.
+     * Geometric for small buffers without over allocating big ones.
+     * @param maxStep the most to grow by at once
+     * @return the strategy
+     */
+    static GrowthStrategy cappedDoubling(int maxStep) {
+        int m = Math.max(1, maxStep);
+        return (currentCapacity, required) -> cap(Math.max(currentCapacity + (long)Math.min(Math.max(currentCapacity, 1), m), required), required);
+    }
+
+    /**
+     * Grow to the smallest of the size classes that holds what is required.
+     * Past the largest class, grow to the next multiple of the largest class.
+     * Useful when buffers are pooled since buffers come in a few known sizes.
+     * @param classes the size classes, in ascending order
+     * @return the strategy
+     */
+    static GrowthStrategy sizeClasses(int... classes) {
+        if (classes == null || classes.length == 0) {
+            throw new IllegalArgumentException("At least one size class is required.");
+        }
+        int[] sizes = classes.clone();
+        for (int x = 1; x < sizes.length; x++) {
+            if (sizes[x] <= sizes[x - 1]) {
+                throw new IllegalArgumentException("Size classes must be in ascending order.");
+            }
+        }
+        int largest = sizes[sizes.length - 1];
+        return (currentCapacity, required) -> {
+            for (int size : sizes) {
+                if (size >= required) {
+                    return size;
+                }
+            }
+            return cap(((required + (long)largest - 1) / largest) * largest, required);
+        };
+    }
+
+    private static int cap(long capacity, int required) {
+        return (int)Math.max(Math.min(capacity, MAX_CAPACITY), required);
+    }
+}
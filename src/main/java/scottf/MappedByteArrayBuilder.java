@@ -0,0 +1,415 @@
+package scottf;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import static java.nio.charset.StandardCharsets.ISO_8859_1;
+
+/**
+ * A builder backed by a file that is memory mapped a region at a time, for builds too big for the heap
+ * or for the 2GB limit of a single ByteBuffer. The data lives in the OS page cache, not the heap,
+ * so it does not add to GC pressure. The length is a long.
+ * <p>
+ * The file grows a region at a time as data is appended, an append that can't map the next region
+ * throws {@link UncheckedIOException}. {@link #force} writes the data to the storage device,
+ * {@link #close} forces, truncates the file to the actual length and closes it,
+ * or deletes it if the builder was made with a temp file.
+ * Mapped regions are unmapped by the JVM when they are garbage collected, on some platforms (Windows)
+ * a file cannot be truncated while it is still mapped.
+ */
+public class MappedByteArrayBuilder implements ByteAppender, Closeable {
+    public static final int DEFAULT_REGION_SIZE = 64 * 1024 * 1024;
+
+    private final Path path;
+    private final boolean temp;
+    private final int regionSize;
+    private final FileChannel channel;
+    private final List<MappedByteBuffer> regions;
+    private MappedByteBuffer current;
+    private long length;
+    private boolean closed;
+
+    /**
+     * Construct the builder with a temp file that is deleted on close
+     * and the region size of {@value #DEFAULT_REGION_SIZE}
+     * @throws IOException if the file cannot be created
+     */
+    public MappedByteArrayBuilder() throws IOException {
+        this(Files.createTempFile("mbab", ".tmp"), DEFAULT_REGION_SIZE, true);
+    }
+
+    /**
+     * Construct the builder with the target file, which is created or truncated,
+     * and the region size of {@value #DEFAULT_REGION_SIZE}
+     * @param path the target file
+     * @throws IOException if the file cannot be opened
+     */
+    public MappedByteArrayBuilder(Path path) throws IOException {
+        this(path, DEFAULT_REGION_SIZE, false);
+    }
+
+    /**
+     * Construct the builder with the target file, which is created or truncated, and the region size
+     * @param path the target file
+     * @param regionSize the size of each mapped region
+     * @throws IOException if the file cannot be opened
+     */
+    public MappedByteArrayBuilder(Path path, int regionSize) throws IOException {
+        this(path, regionSize, false);
+    }
+
+    /**
+     * Construct the builder
+     * @param path the file, which is created or truncated
+     * @param regionSize the size of each mapped region
+     * @param temp whether to delete the file on close instead of keeping it
+     * @throws IOException if the file cannot be opened
+     */
+    public MappedByteArrayBuilder(Path path, int regionSize, boolean temp) throws IOException {
+        if (regionSize < 1) {
+            throw new IllegalArgumentException("Region size must be positive.");
+        }
+        this.path = path;
+        this.temp = temp;
+        this.regionSize = regionSize;
+        channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+            StandardOpenOption.READ, StandardOpenOption.WRITE);
+        regions = new ArrayList<>();
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    public int getRegionSize() {
+        return regionSize;
+    }
+
+    /**
+     * Get the length of the data
+     *
+     * @return the length of the data
+     */
+    public long length() {
+        return length;
+    }
+
+    // map the next region, which also grows the file
+    private void nextRegion() {
+        if (closed) {
+            throw new IllegalStateException("Builder is closed.");
+        }
+        try {
+            current = channel.map(FileChannel.MapMode.READ_WRITE, (long)regions.size() * regionSize, regionSize);
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        regions.add(current);
+    }
+
+    @Override
+    public MappedByteArrayBuilder append(byte b) {
+        if (current == null || !current.hasRemaining()) {
+            nextRegion();
+        }
+        current.put(b);
+        length++;
+        return this;
+    }
+
+    @Override
+    public MappedByteArrayBuilder append(byte[] src) {
+        return append(src, 0, src.length);
+    }
+
+    @Override
+    public MappedByteArrayBuilder append(byte[] src, int len) {
+        return append(src, 0, len);
+    }
+
+    @Override
+    public MappedByteArrayBuilder append(byte[] src, int offset, int len) {
+        while (len > 0) {
+            if (current == null || !current.hasRemaining()) {
+                nextRegion();
+            }
+            int n = Math.min(len, current.remaining());
+            current.put(src, offset, n);
+            offset += n;
+            len -= n;
+            length += n;
+        }
+        return this;
+    }
+
+    /**
+     * Append a String as ISO_8859_1, the same default as {@link ByteArrayBuilder}
+     * If the src is null, the word 'null' is appended.
+     *
+     * @param  src
+     *         The String from which bytes are to be read
+     * @return this (fluent)
+     */
+    public MappedByteArrayBuilder append(String src) {
+        return append(src, ISO_8859_1);
+    }
+
+    @Override
+    public MappedByteArrayBuilder append(String src, Charset charset) {
+        ByteAppender.super.append(src, charset);
+        return this;
+    }
+
+    @Override
+    public MappedByteArrayBuilder append(ByteArrayBuilder bab) {
+        ByteAppender.super.append(bab);
+        return this;
+    }
+
+    @Override
+    public MappedByteArrayBuilder append(CharBuffer src, Charset charset) {
+        ByteAppender.super.append(src, charset);
+        return this;
+    }
+
+    @Override
+    public MappedByteArrayBuilder append(int i) {
+        ByteAppender.super.append(i);
+        return this;
+    }
+
+    @Override
+    public MappedByteArrayBuilder append(long l) {
+        ByteAppender.super.append(l);
+        return this;
+    }
+
+    @Override
+    public MappedByteArrayBuilder appendUnsigned(long l) {
+        ByteAppender.super.appendUnsigned(l);
+        return this;
+    }
+
+    @Override
+    public MappedByteArrayBuilder appendPadded(long l, int minDigits) {
+        ByteAppender.super.appendPadded(l, minDigits);
+        return this;
+    }
+
+    @Override
+    public MappedByteArrayBuilder appendHex(int i) {
+        ByteAppender.super.appendHex(i);
+        return this;
+    }
+
+    @Override
+    public MappedByteArrayBuilder appendHex(long l) {
+        ByteAppender.super.appendHex(l);
+        return this;
+    }
+
+    @Override
+    public MappedByteArrayBuilder appendHex(long l, int minDigits) {
+        ByteAppender.super.appendHex(l, minDigits);
+        return this;
+    }
+
+    @Override
+    public MappedByteArrayBuilder append(double d, int scale) {
+        ByteAppender.super.append(d, scale);
+        return this;
+    }
+
+    @Override
+    public MappedByteArrayBuilder putShort(short s) {
+        ByteAppender.super.putShort(s);
+        return this;
+    }
+
+    @Override
+    public MappedByteArrayBuilder putShortLE(short s) {
+        ByteAppender.super.putShortLE(s);
+        return this;
+    }
+
+    @Override
+    public MappedByteArrayBuilder putInt(int i) {
+        ByteAppender.super.putInt(i);
+        return this;
+    }
+
+    @Override
+    public MappedByteArrayBuilder putIntLE(int i) {
+        ByteAppender.super.putIntLE(i);
+        return this;
+    }
+
+    @Override
+    public MappedByteArrayBuilder putLong(long l) {
+        ByteAppender.super.putLong(l);
+        return this;
+    }
+
+    @Override
+    public MappedByteArrayBuilder putLongLE(long l) {
+        ByteAppender.super.putLongLE(l);
+        return this;
+    }
+
+    @Override
+    public MappedByteArrayBuilder putDouble(double d) {
+        ByteAppender.super.putDouble(d);
+        return this;
+    }
+
+    @Override
+    public MappedByteArrayBuilder putDoubleLE(double d) {
+        ByteAppender.super.putDoubleLE(d);
+        return this;
+    }
+
+    @Override
+    public MappedByteArrayBuilder putVarint(long l) {
+        ByteAppender.super.putVarint(l);
+        return this;
+    }
+
+    @Override
+    public MappedByteArrayBuilder putZigZag(long l) {
+        ByteAppender.super.putZigZag(l);
+        return this;
+    }
+
+    @Override
+    public MappedByteArrayBuilder putLengthPrefixed(byte[] src) {
+        ByteAppender.super.putLengthPrefixed(src);
+        return this;
+    }
+
+    @Override
+    public MappedByteArrayBuilder putLengthPrefixed(byte[] src, int offset, int len) {
+        ByteAppender.super.putLengthPrefixed(src, offset, len);
+        return this;
+    }
+
+    /**
+     * Write the data in the regions to the storage device
+     *
+     * @return this (fluent)
+     */
+    public MappedByteArrayBuilder force() {
+        for (MappedByteBuffer region : regions) {
+            region.force();
+        }
+        return this;
+    }
+
+    /**
+     * Write all the data to the channel straight from the mapped regions.
+     * Keeps writing until everything is written, or, for a non-blocking channel, until a write writes nothing.
+     *
+     * @param out the channel
+     * @return the number of bytes written
+     * @throws IOException if the channel write fails
+     */
+    public long writeTo(WritableByteChannel out) throws IOException {
+        long written = 0;
+        for (MappedByteBuffer region : regions) {
+            ByteBuffer view = region.duplicate();
+            view.flip();
+            while (view.hasRemaining()) {
+                int n = out.write(view);
+                if (n == 0) {
+                    return written;
+                }
+                written += n;
+            }
+        }
+        return written;
+    }
+
+    /**
+     * Append all the data to another appender, region by region
+     *
+     * @param out the appender
+     * @return the number of bytes appended
+     */
+    public long appendTo(ByteAppender out) {
+        byte[] chunk = new byte[(int)Math.min(length, 64 * 1024)];
+        for (MappedByteBuffer region : regions) {
+            ByteBuffer view = region.duplicate();
+            view.flip();
+            while (view.hasRemaining()) {
+                int n = Math.min(chunk.length, view.remaining());
+                view.get(chunk, 0, n);
+                out.append(chunk, 0, n);
+            }
+        }
+        return length;
+    }
+
+    /**
+     * Copy the data into a new byte array
+     *
+     * @return the copy of the bytes
+     * @throws IllegalStateException if the data is too big for an array
+     */
+    public byte[] toByteArray() {
+        if (length > GrowthStrategy.MAX_CAPACITY) {
+            throw new IllegalStateException("Data is too big for an array, length is " + length);
+        }
+        byte[] bytes = new byte[(int)length];
+        int pos = 0;
+        for (MappedByteBuffer region : regions) {
+            ByteBuffer view = region.duplicate();
+            view.flip();
+            int n = view.remaining();
+            view.get(bytes, pos, n);
+            pos += n;
+        }
+        return bytes;
+    }
+
+    /**
+     * Force the data to the storage device, truncate the file to the length of the data
+     * and close it, or delete it if it is a temp file
+     *
+     * @throws IOException if the file cannot be truncated, closed or deleted
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            if (!temp) {
+                force();
+            }
+            regions.clear();
+            current = null;
+            if (!temp) {
+                channel.truncate(length);
+            }
+        }
+        finally {
+            channel.close();
+            if (temp) {
+                Files.deleteIfExists(path);
+            }
+        }
+    }
+}
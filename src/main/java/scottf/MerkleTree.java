@@ -0,0 +1,162 @@
+package scottf;
+
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The digests of a {@link TreeDigester}. Level 0 is the leaf digests, each level above digests pairs
+ * from the level below, and the top level is the single root. A node without a pair, at the end of an odd
+ * length level, moves up unchanged. Leaves are digested with a 0 byte first and nodes with a 1 byte first.
+ * <p>
+ * A leaf can be checked against the tree with {@link #verifyLeaf}, or against just a root with
+ * {@link #verifyProof} and the sibling digests from {@link #getProof}. {@link #setLeaf} replaces a leaf digest
+ * and recomputes only the digests from it up to the root.
+ */
+public class MerkleTree {
+    private final DigesterPool pool;
+    private final int leafSize;
+    private final long length;
+    private final List<byte[][]> levels;
+
+    MerkleTree(DigesterPool pool, int leafSize, long length, byte[][] leaves) {
+        this.pool = pool;
+        this.leafSize = leafSize;
+        this.length = length;
+        levels = new ArrayList<>();
+        levels.add(leaves);
+        byte[][] level = leaves;
+        while (level.length > 1) {
+            byte[][] up = new byte[(level.length + 1) / 2][];
+            for (int x = 0; x < up.length; x++) {
+                up[x] = node(level, x);
+            }
+            levels.add(up);
+            level = up;
+        }
+    }
+
+    private byte[] node(byte[][] below, int x) {
+        int left = x * 2;
+        return left + 1 < below.length ? TreeDigester.digestNode(pool, below[left], below[left + 1]) : below[left];
+    }
+
+    public byte[] getRoot() {
+        return levels.get(levels.size() - 1)[0].clone();
+    }
+
+    public int getLeafCount() {
+        return levels.get(0).length;
+    }
+
+    public int getLeafSize() {
+        return leafSize;
+    }
+
+    /**
+     * The length of the data the tree was made from
+     * @return the length
+     */
+    public long length() {
+        return length;
+    }
+
+    /**
+     * The length of a leaf, the leaf size except maybe the last
+     * @param index the leaf
+     * @return the length
+     */
+    public int getLeafLength(int index) {
+        return (int)Math.min(leafSize, length - (long)index * leafSize);
+    }
+
+    public byte[] getLeaf(int index) {
+        return levels.get(0)[index].clone();
+    }
+
+    /**
+     * Check leaf data against the leaf digest in the tree
+     * @param index the leaf
+     * @param bytes the data
+     * @param off the offset of the leaf
+     * @param len the length of the leaf
+     * @return true if the data digests to the leaf digest
+     */
+    public boolean verifyLeaf(int index, byte[] bytes, int off, int len) {
+        return MessageDigest.isEqual(levels.get(0)[index], digestLeaf(bytes, off, len));
+    }
+
+    /**
+     * Replace a leaf with new data and recompute the digests from it up to the root
+     * @param index the leaf
+     * @param bytes the data
+     * @param off the offset of the leaf
+     * @param len the length of the leaf
+     * @return this (fluent)
+     */
+    public MerkleTree setLeaf(int index, byte[] bytes, int off, int len) {
+        levels.get(0)[index] = digestLeaf(bytes, off, len);
+        for (int l = 1; l < levels.size(); l++) {
+            index /= 2;
+            levels.get(l)[index] = node(levels.get(l - 1), index);
+        }
+        return this;
+    }
+
+    /**
+     * The sibling digests on the path from a leaf to the root, bottom up, leaving out levels where
+     * the node has no sibling. With the root and leaf count this is enough to verify the leaf.
+     * @param index the leaf
+     * @return the proof
+     */
+    public byte[][] getProof(int index) {
+        List<byte[]> proof = new ArrayList<>();
+        for (int l = 0; l < levels.size() - 1; l++) {
+            byte[][] level = levels.get(l);
+            int sibling = index ^ 1;
+            if (sibling < level.length) {
+                proof.add(level[sibling].clone());
+            }
+            index /= 2;
+        }
+        return proof.toArray(new byte[0][]);
+    }
+
+    /**
+     * Verify leaf data against a root, without the rest of the tree
+     * @param pool the pool the digests come from, the same algorithm as the tree
+     * @param root the root of the tree
+     * @param leafCount the number of leaves in the tree
+     * @param index the leaf
+     * @param bytes the data
+     * @param off the offset of the leaf
+     * @param len the length of the leaf
+     * @param proof the proof from {@link #getProof}
+     * @return true if the leaf is part of the tree
+     */
+    public static boolean verifyProof(DigesterPool pool, byte[] root, int leafCount, int index, byte[] bytes, int off, int len, byte[][] proof) {
+        if (index < 0 || index >= leafCount) {
+            return false;
+        }
+        byte[] digest = TreeDigester.digestLeaf(pool, ByteBuffer.wrap(bytes, off, len));
+        int p = 0;
+        for (int count = leafCount; count > 1; count = (count + 1) / 2) {
+            int sibling = index ^ 1;
+            if (sibling < count) {
+                if (p == proof.length) {
+                    return false;
+                }
+                digest = (index & 1) == 0
+                    ? TreeDigester.digestNode(pool, digest, proof[p++])
+                    : TreeDigester.digestNode(pool, proof[p++], digest);
+            }
+            index /= 2;
+        }
+        return p == proof.length && MessageDigest.isEqual(root, digest);
+    }
+
+    private byte[] digestLeaf(byte[] bytes, int off, int len) {
+        return TreeDigester.digestLeaf(pool, ByteBuffer.wrap(bytes, off, len));
+    }
+}
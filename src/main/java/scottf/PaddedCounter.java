@@ -0,0 +1,51 @@
+package scottf;
+
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+
+/**
+ * A volatile long on its own cache line, so threads writing counters that sit next to
+ * each other in memory don't invalidate each other's cache lines (false sharing).
+ * The padding is done with superclass and subclass fields since the JVM lays out
+ * superclass fields first but may reorder fields within a class.
+ */
+class PaddedCounter extends PaddedCounterValue {
+    @SuppressWarnings("unused")
+    private long p9, p10, p11, p12, p13, p14, p15;
+
+    private static final AtomicLongFieldUpdater<PaddedCounterValue> UPDATER =
+        AtomicLongFieldUpdater.newUpdater(PaddedCounterValue.class, "value");
+
+    long get() {
+        return value;
+    }
+
+    void set(long v) {
+        value = v;
+    }
+
+    /**
+     * Set without a full fence, the write becomes visible in order with writes before it,
+     * which is all a single writer publishing a position needs
+     * @param v the value
+     */
+    void lazySet(long v) {
+        UPDATER.lazySet(this, v);
+    }
+
+    boolean compareAndSet(long expect, long update) {
+        return UPDATER.compareAndSet(this, expect, update);
+    }
+
+    long getAndAdd(long delta) {
+        return UPDATER.getAndAdd(this, delta);
+    }
+}
+
+abstract class PaddedCounterLeftPad {
+    @SuppressWarnings("unused")
+    private long p1, p2, p3, p4, p5, p6, p7;
+}
+
+abstract class PaddedCounterValue extends PaddedCounterLeftPad {
+    protected volatile long value;
+}
@@ -0,0 +1,256 @@
+package scottf;
+
+import java.io.*;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Gzip on many cores. The input is split into blocks that are compressed at the same time on a fork join pool,
+ * then written in order as one standard gzip stream that any gunzip can read.
+ * <p>
+ * Each block is primed with the last 32K of the block before it as a preset dictionary,
+ * so matches that cross block boundaries are still found and the ratio is close to single threaded gzip.
+ * Every block but the last ends with a sync flush, so the blocks join on a byte boundary.
+ * The crc of each block is computed with the block and the crcs are combined for the trailer.
+ * Only a bounded number of blocks are in flight, so memory does not grow with the input.
+ * <p>
+ * The deflaters are pooled for reuse across calls, {@link #close} ends them.
+ */
+public class ParallelGZipper implements Closeable {
+    public static final int DEFAULT_BLOCK_SIZE = 128 * 1024;
+    private static final int DICTIONARY_SIZE = 32 * 1024;
+    private static final int CHUNK_SIZE = 8192;
+
+    private final ForkJoinPool forkJoinPool;
+    private final int blockSize;
+    private final int maxInFlight;
+    private final ZlibPool zlibPool;
+
+    /**
+     * Construct with the common fork join pool, the default block size and default compression level
+     */
+    public ParallelGZipper() {
+        this(ForkJoinPool.commonPool(), DEFAULT_BLOCK_SIZE, Deflater.DEFAULT_COMPRESSION);
+    }
+
+    /**
+     * Construct
+     * @param forkJoinPool the pool to compress on
+     * @param blockSize the number of input bytes in each block, at least 32K
+     * @param level the compression level, 0-9 or {@link Deflater#DEFAULT_COMPRESSION}
+     */
+    public ParallelGZipper(ForkJoinPool forkJoinPool, int blockSize, int level) {
+        if (blockSize < DICTIONARY_SIZE) {
+            throw new IllegalArgumentException("Block size must be at least " + DICTIONARY_SIZE);
+        }
+        this.forkJoinPool = forkJoinPool;
+        this.blockSize = blockSize;
+        maxInFlight = 2 * forkJoinPool.getParallelism();
+        zlibPool = new ZlibPool(level, maxInFlight);
+    }
+
+    public int getBlockSize() {
+        return blockSize;
+    }
+
+    /**
+     * End the pooled deflaters, freeing their native memory.
+     * The ParallelGZipper can still be used, the pool just starts empty.
+     */
+    @Override
+    public void close() {
+        zlibPool.close();
+    }
+
+    /**
+     * Gzip a file
+     * @param f the file
+     * @return the gzipped bytes
+     * @throws IOException if the file cannot be read
+     */
+    public byte[] zip(File f) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream((int)Math.min(f.length() / 2 + 64, GrowthStrategy.MAX_CAPACITY));
+        try (FileInputStream in = new FileInputStream(f)) {
+            zip(in, out);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Gzip everything in the input stream to the output stream. Neither stream is closed.
+     * @param in the input
+     * @param out the output
+     * @return the number of bytes read from the input
+     * @throws IOException if reading or writing fails
+     */
+    public long zip(InputStream in, OutputStream out) throws IOException {
+        out.write(GZipper.HEADER);
+        Deque<ForkJoinTask<Block>> inFlight = new ArrayDeque<>();
+        long crc = 0;
+        long total = 0;
+
+        byte[] dictionary = null;
+        byte[] next = readBlock(in);
+        while (true) {
+            byte[] current = next;
+            boolean last = current.length < blockSize || (next = readBlock(in)).length == 0;
+            inFlight.add(forkJoinPool.submit(new BlockTask(current, dictionary, last)));
+            dictionary = current;
+
+            // write finished blocks in order, waiting for the oldest when too many are in flight
+            while (inFlight.size() == maxInFlight || (last && !inFlight.isEmpty())) {
+                Block block = inFlight.remove().join();
+                out.write(block.deflated.internalArray(), 0, block.deflated.length());
+                crc = crc32Combine(crc, block.crc, block.len);
+                total += block.len;
+            }
+            if (last) {
+                break;
+            }
+        }
+
+        byte[] trailer = new ByteArrayBuilder(8).putIntLE((int)crc).putIntLE((int)total).toByteArray();
+        out.write(trailer);
+        return total;
+    }
+
+    // read until the block is full or the input ends, the array is short only at the end
+    private byte[] readBlock(InputStream in) throws IOException {
+        byte[] block = new byte[blockSize];
+        int len = 0;
+        int red;
+        while (len < blockSize && (red = in.read(block, len, blockSize - len)) != -1) {
+            len += red;
+        }
+        if (len < blockSize) {
+            byte[] shorter = new byte[len];
+            System.arraycopy(block, 0, shorter, 0, len);
+            return shorter;
+        }
+        return block;
+    }
+
+    private static class Block {
+        final ByteArrayBuilder deflated;
+        final long crc;
+        final int len;
+
+        Block(ByteArrayBuilder deflated, long crc, int len) {
+            this.deflated = deflated;
+            this.crc = crc;
+            this.len = len;
+        }
+    }
+
+    private class BlockTask implements Callable<Block> {
+        private final byte[] input;
+        private final byte[] dictionary;
+        private final boolean last;
+
+        BlockTask(byte[] input, byte[] dictionary, boolean last) {
+            this.input = input;
+            this.dictionary = dictionary;
+            this.last = last;
+        }
+
+        @Override
+        public Block call() {
+            CRC32 crc = new CRC32();
+            crc.update(input, 0, input.length);
+
+            ByteArrayBuilder deflated = new ByteArrayBuilder(input.length / 2 + 64);
+            byte[] chunk = new byte[CHUNK_SIZE];
+            Deflater deflater = zlibPool.acquireDeflater();
+            try {
+                if (dictionary != null) {
+                    int dictLen = Math.min(DICTIONARY_SIZE, dictionary.length);
+                    deflater.setDictionary(dictionary, dictionary.length - dictLen, dictLen);
+                }
+                deflater.setInput(input, 0, input.length);
+                if (last) {
+                    deflater.finish();
+                    while (!deflater.finished()) {
+                        deflated.append(chunk, 0, deflater.deflate(chunk));
+                    }
+                }
+                else {
+                    // a full chunk means there might be more output waiting
+                    int n;
+                    do {
+                        n = deflater.deflate(chunk, 0, chunk.length, Deflater.SYNC_FLUSH);
+                        deflated.append(chunk, 0, n);
+                    } while (n == chunk.length);
+                }
+            }
+            finally {
+                zlibPool.release(deflater);
+            }
+            return new Block(deflated, crc.getValue(), input.length);
+        }
+    }
+
+    /**
+     * Combine the crc32 of two runs of bytes into the crc32 of the runs one after the other,
+     * without the bytes, the same as zlib's crc32_combine
+     * @param crc1 the crc of the first run
+     * @param crc2 the crc of the second run
+     * @param len2 the length of the second run
+     * @return the combined crc
+     */
+    public static long crc32Combine(long crc1, long crc2, long len2) {
+        if (len2 <= 0) {
+            return crc1;
+        }
+        long[] even = new long[32]; // even power of two zeros operator
+        long[] odd = new long[32];  // odd power of two zeros operator
+
+        // operator for one zero bit
+        odd[0] = 0xEDB88320L;
+        long row = 1;
+        for (int n = 1; n < 32; n++) {
+            odd[n] = row;
+            row <<= 1;
+        }
+        gf2MatrixSquare(even, odd); // two zero bits
+        gf2MatrixSquare(odd, even); // four zero bits
+
+        // apply len2 zeros to crc1, the first square puts the operator for one zero byte in even
+        do {
+            gf2MatrixSquare(even, odd);
+            if ((len2 & 1) != 0) {
+                crc1 = gf2MatrixTimes(even, crc1);
+            }
+            len2 >>= 1;
+            if (len2 == 0) {
+                break;
+            }
+            gf2MatrixSquare(odd, even);
+            if ((len2 & 1) != 0) {
+                crc1 = gf2MatrixTimes(odd, crc1);
+            }
+            len2 >>= 1;
+        } while (len2 != 0);
+        return crc1 ^ crc2;
+    }
+
+    private static long gf2MatrixTimes(long[] mat, long vec) {
+        long sum = 0;
+        for (int i = 0; vec != 0; i++, vec >>>= 1) {
+            if ((vec & 1) != 0) {
+                sum ^= mat[i];
+            }
+        }
+        return sum;
+    }
+
+    private static void gf2MatrixSquare(long[] square, long[] mat) {
+        for (int n = 0; n < 32; n++) {
+            square[n] = gf2MatrixTimes(mat, mat[n]);
+        }
+    }
+}
@@ -0,0 +1,464 @@
+package scottf;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+import static java.nio.charset.StandardCharsets.ISO_8859_1;
+
+/**
+ * A builder that keeps its data in a chain of fixed size chunks instead of one buffer.
+ * Growing adds a chunk, it never copies what is already there,
+ * so it suits large payloads where {@link ByteArrayBuilder} would re-allocate and copy many times.
+ * The data is only copied into one array on demand, i.e. {@link #toByteArray()},
+ * and can be written to a channel straight from the chunks with {@link #writeTo(GatheringByteChannel)}
+ */
+public class SegmentedByteArrayBuilder implements ByteAppender {
+    public static final int DEFAULT_CHUNK_SIZE = 8192;
+
+    // big enough for any number that isn't padded with a lot of zeros
+    private static final int SCRATCH_SIZE = 40;
+
+    private final int chunkSize;
+    private final Charset defaultCharset;
+    private final List<byte[]> chunks;
+    private int chunkIndex;
+    private byte[] current;
+    private int currentPos;
+    private int length;
+    private byte[] scratch;
+
+    /**
+     * Construct the SegmentedByteArrayBuilder with
+     * the chunk size of {@value #DEFAULT_CHUNK_SIZE}
+     * and the character set {@link java.nio.charset.StandardCharsets#ISO_8859_1}
+     */
+    public SegmentedByteArrayBuilder() {
+        this(DEFAULT_CHUNK_SIZE, ISO_8859_1);
+    }
+
+    /**
+     * Construct the SegmentedByteArrayBuilder with the supplied chunk size
+     * and the character set {@link java.nio.charset.StandardCharsets#ISO_8859_1}
+     * @param chunkSize the chunk size
+     */
+    public SegmentedByteArrayBuilder(int chunkSize) {
+        this(chunkSize, ISO_8859_1);
+    }
+
+    /**
+     * Construct the SegmentedByteArrayBuilder with the supplied chunk size and character set
+     * @param chunkSize the chunk size
+     * @param defaultCharset the default character set
+     */
+    public SegmentedByteArrayBuilder(int chunkSize, Charset defaultCharset) {
+        this.chunkSize = chunkSize > 0 ? chunkSize : DEFAULT_CHUNK_SIZE;
+        this.defaultCharset = defaultCharset;
+        chunks = new ArrayList<>();
+        current = new byte[this.chunkSize];
+        chunks.add(current);
+    }
+
+    /**
+     * Get the length of the data in all the chunks
+     *
+     * @return the length of the data
+     */
+    public int length() {
+        return length;
+    }
+
+    public int getChunkSize() {
+        return chunkSize;
+    }
+
+    /**
+     * Get the number of chunks that hold data
+     *
+     * @return the number of chunks
+     */
+    public int chunkCount() {
+        return currentPos == 0 ? chunkIndex : chunkIndex + 1;
+    }
+
+    /**
+     * Clear the builder, resetting its length. The chunks are kept for reuse.
+     *
+     * @return this (fluent)
+     */
+    public SegmentedByteArrayBuilder clear() {
+        chunkIndex = 0;
+        current = chunks.get(0);
+        currentPos = 0;
+        length = 0;
+        return this;
+    }
+
+    private void nextChunk() {
+        chunkIndex++;
+        if (chunkIndex < chunks.size()) {
+            current = chunks.get(chunkIndex);
+        }
+        else {
+            current = new byte[chunkSize];
+            chunks.add(current);
+        }
+        currentPos = 0;
+    }
+
+    @Override
+    public SegmentedByteArrayBuilder append(byte b) {
+        if (currentPos == chunkSize) {
+            nextChunk();
+        }
+        current[currentPos++] = b;
+        length++;
+        return this;
+    }
+
+    @Override
+    public SegmentedByteArrayBuilder append(byte[] src) {
+        return append(src, 0, src.length);
+    }
+
+    @Override
+    public SegmentedByteArrayBuilder append(byte[] src, int len) {
+        return append(src, 0, len);
+    }
+
+    @Override
+    public SegmentedByteArrayBuilder append(byte[] src, int offset, int len) {
+        length += Math.max(0, len);
+        while (len > 0) {
+            if (currentPos == chunkSize) {
+                nextChunk();
+            }
+            int n = Math.min(len, chunkSize - currentPos);
+            System.arraycopy(src, offset, current, currentPos, n);
+            currentPos += n;
+            offset += n;
+            len -= n;
+        }
+        return this;
+    }
+
+    /**
+     * Append a String with the default charset.
+     * If the src is null, the word 'null' is appended.
+     *
+     * @param  src
+     *         The String from which bytes are to be read
+     * @return this (fluent)
+     */
+    public SegmentedByteArrayBuilder append(String src) {
+        append(src, defaultCharset);
+        return this;
+    }
+
+    /**
+     * Append a CharBuffer with default charset.
+     * If the src is null, the word 'null' is appended.
+     *
+     * @param  src
+     *         The CharBuffer from which bytes are to be read
+     * @return this (fluent)
+     */
+    public SegmentedByteArrayBuilder append(CharBuffer src) {
+        append(src, defaultCharset);
+        return this;
+    }
+
+    @Override
+    public SegmentedByteArrayBuilder append(ByteArrayBuilder bab) {
+        if (bab != null) {
+            bab.appendTo(this);
+        }
+        return this;
+    }
+
+    /**
+     * Append the contents of another segmented builder
+     *
+     * @param  sbab the segmented builder
+     * @return this (fluent)
+     */
+    public SegmentedByteArrayBuilder append(SegmentedByteArrayBuilder sbab) {
+        if (sbab != null) {
+            sbab.appendTo(this);
+        }
+        return this;
+    }
+
+    // Numbers are written backwards, so they need an array.
+    // That's the current chunk if the number fits, otherwise the scratch array,
+    // which is appended when the number is complete.
+    private byte[] reserve(int size) {
+        if (chunkSize - currentPos >= size) {
+            return current;
+        }
+        if (scratch == null || scratch.length < size) {
+            scratch = new byte[Math.max(SCRATCH_SIZE, size)];
+        }
+        return scratch;
+    }
+
+    private int reserveStart(byte[] hb) {
+        return hb == current ? currentPos : 0;
+    }
+
+    private void commit(byte[] hb, int size) {
+        if (hb == current) {
+            currentPos += size;
+            length += size;
+        }
+        else {
+            append(hb, 0, size);
+        }
+    }
+
+    @Override
+    public SegmentedByteArrayBuilder append(int i) {
+        return append((long)i);
+    }
+
+    @Override
+    public SegmentedByteArrayBuilder append(long l) {
+        int size = AsciiNumbers.size(l);
+        byte[] hb = reserve(size);
+        AsciiNumbers.putLong(hb, reserveStart(hb) + size, l);
+        commit(hb, size);
+        return this;
+    }
+
+    @Override
+    public SegmentedByteArrayBuilder appendUnsigned(long l) {
+        int size = AsciiNumbers.unsignedSize(l);
+        byte[] hb = reserve(size);
+        AsciiNumbers.putUnsigned(hb, reserveStart(hb) + size, l);
+        commit(hb, size);
+        return this;
+    }
+
+    @Override
+    public SegmentedByteArrayBuilder appendPadded(long l, int minDigits) {
+        int digits = AsciiNumbers.digits(l);
+        int zeros = Math.max(0, minDigits - digits);
+        int sign = l < 0 ? 1 : 0;
+        int size = sign + zeros + digits;
+        byte[] hb = reserve(size);
+        int pos = reserveStart(hb);
+        if (sign == 1) {
+            hb[pos] = '-';
+        }
+        AsciiNumbers.putZeros(hb, pos + sign, zeros);
+        AsciiNumbers.putDigits(hb, pos + size, l < 0 ? l : -l);
+        commit(hb, size);
+        return this;
+    }
+
+    @Override
+    public SegmentedByteArrayBuilder appendHex(long l, int minDigits) {
+        int size = Math.max(AsciiNumbers.hexSize(l), minDigits);
+        byte[] hb = reserve(size);
+        AsciiNumbers.putHex(hb, reserveStart(hb) + size, l, size);
+        commit(hb, size);
+        return this;
+    }
+
+    @Override
+    public SegmentedByteArrayBuilder append(String src, Charset charset) {
+        ByteAppender.super.append(src, charset);
+        return this;
+    }
+
+    @Override
+    public SegmentedByteArrayBuilder append(CharBuffer src, Charset charset) {
+        ByteAppender.super.append(src, charset);
+        return this;
+    }
+
+    @Override
+    public SegmentedByteArrayBuilder appendHex(int i) {
+        ByteAppender.super.appendHex(i);
+        return this;
+    }
+
+    @Override
+    public SegmentedByteArrayBuilder appendHex(long l) {
+        ByteAppender.super.appendHex(l);
+        return this;
+    }
+
+    @Override
+    public SegmentedByteArrayBuilder append(double d, int scale) {
+        ByteAppender.super.append(d, scale);
+        return this;
+    }
+
+    @Override
+    public SegmentedByteArrayBuilder putShort(short s) {
+        ByteAppender.super.putShort(s);
+        return this;
+    }
+
+    @Override
+    public SegmentedByteArrayBuilder putShortLE(short s) {
+        ByteAppender.super.putShortLE(s);
+        return this;
+    }
+
+    @Override
+    public SegmentedByteArrayBuilder putInt(int i) {
+        ByteAppender.super.putInt(i);
+        return this;
+    }
+
+    @Override
+    public SegmentedByteArrayBuilder putIntLE(int i) {
+        ByteAppender.super.putIntLE(i);
+        return this;
+    }
+
+    @Override
+    public SegmentedByteArrayBuilder putLong(long l) {
+        ByteAppender.super.putLong(l);
+        return this;
+    }
+
+    @Override
+    public SegmentedByteArrayBuilder putLongLE(long l) {
+        ByteAppender.super.putLongLE(l);
+        return this;
+    }
+
+    @Override
+    public SegmentedByteArrayBuilder putDouble(double d) {
+        ByteAppender.super.putDouble(d);
+        return this;
+    }
+
+    @Override
+    public SegmentedByteArrayBuilder putDoubleLE(double d) {
+        ByteAppender.super.putDoubleLE(d);
+        return this;
+    }
+
+    @Override
+    public SegmentedByteArrayBuilder putVarint(long l) {
+        ByteAppender.super.putVarint(l);
+        return this;
+    }
+
+    @Override
+    public SegmentedByteArrayBuilder putZigZag(long l) {
+        ByteAppender.super.putZigZag(l);
+        return this;
+    }
+
+    @Override
+    public SegmentedByteArrayBuilder putLengthPrefixed(byte[] src) {
+        ByteAppender.super.putLengthPrefixed(src);
+        return this;
+    }
+
+    @Override
+    public SegmentedByteArrayBuilder putLengthPrefixed(byte[] src, int offset, int len) {
+        ByteAppender.super.putLengthPrefixed(src, offset, len);
+        return this;
+    }
+
+    /**
+     * Append the data in all the chunks to another appender, chunk by chunk
+     *
+     * @param out the appender
+     * @return the number of bytes appended
+     */
+    public int appendTo(ByteAppender out) {
+        // work from a snapshot so appending to this builder is safe
+        int remaining = length;
+        int lastIndex = chunkIndex;
+        for (int x = 0; x <= lastIndex && remaining > 0; x++) {
+            int n = Math.min(remaining, chunkSize);
+            out.append(chunks.get(x), 0, n);
+            remaining -= n;
+        }
+        return length - remaining;
+    }
+
+    /**
+     * Copy the contents of the chunks to the byte array starting at the destination
+     * positions supplied. Assumes that the {@link #length} method has been called
+     * and the destination byte array has enough space allocated
+     *
+     * @param dest the destination byte array
+     * @param destPos the starting position in the destination byte array
+     * @return the number of bytes copied
+     */
+    public int copyTo(byte[] dest, int destPos) {
+        int remaining = length;
+        for (int x = 0; remaining > 0; x++) {
+            int n = Math.min(remaining, chunkSize);
+            System.arraycopy(chunks.get(x), 0, dest, destPos, n);
+            destPos += n;
+            remaining -= n;
+        }
+        return length;
+    }
+
+    /**
+     * Flatten the chunks into a new byte array
+     *
+     * @return the copy of the bytes
+     */
+    public byte[] toByteArray() {
+        byte[] bytes = new byte[length];
+        copyTo(bytes, 0);
+        return bytes;
+    }
+
+    /**
+     * Wrap each chunk that holds data in a ByteBuffer, without copying,
+     * position 0 and limit the amount of data in that chunk.
+     * The buffers are only valid until the builder is cleared.
+     *
+     * @return the buffers
+     */
+    public ByteBuffer[] toByteBuffers() {
+        int count = chunkCount();
+        ByteBuffer[] buffers = new ByteBuffer[count];
+        for (int x = 0; x < count; x++) {
+            buffers[x] = ByteBuffer.wrap(chunks.get(x), 0, x == chunkIndex ? currentPos : chunkSize);
+        }
+        return buffers;
+    }
+
+    /**
+     * Write the data in all the chunks to the channel as one gathering write, without flattening.
+     * Keeps writing until everything is written, or, for a non-blocking channel, until a write writes nothing.
+     *
+     * @param channel the channel
+     * @return the number of bytes written
+     * @throws IOException if the channel write fails
+     */
+    public long writeTo(GatheringByteChannel channel) throws IOException {
+        ByteBuffer[] buffers = toByteBuffers();
+        long written = 0;
+        while (written < length) {
+            long n = channel.write(buffers);
+            if (n == 0) {
+                break;
+            }
+            written += n;
+        }
+        return written;
+    }
+
+    @Override
+    public String toString() {
+        return new String(toByteArray(), defaultCharset);
+    }
+}
@@ -0,0 +1,330 @@
+package scottf;
+
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Consumer;
+
+import static java.nio.charset.StandardCharsets.ISO_8859_1;
+
+/**
+ * A bounded, append only byte log shared by many producer threads and drained by one flusher thread, without locks.
+ * <p>
+ * A producer reserves a region for a record with a single compare and set, fills it with the
+ * {@link ByteAppender} methods, then commits it. Producers fill their regions at the same time and can commit in
+ * any order. The flusher drains the committed records in reservation order, stopping at the first one not yet
+ * committed, and can write them to a channel straight from the log.
+ * <p>
+ * Each record has an 8 byte header, the record size and the number of bytes written, and records are 8 byte aligned.
+ * The header is only set on commit, which is what makes the record visible to the flusher.
+ * A record that would run past the end of the log is placed at the start, the space skipped is a padding record.
+ */
+public class SharedByteLog {
+    static final int HEADER = 8;
+    private static final int ALIGN = 8;
+    private static final VarHandle INT_VIEW = MethodHandles.byteArrayViewVarHandle(int[].class, ByteOrder.nativeOrder());
+
+    private final byte[] data;
+    private final int base; // headers are read and written as ints, so the log starts 8 byte aligned in the array
+    private final int mask;
+    private final int maxRecord;
+    private final PaddedCounter head; // next sequence to drain, written only by the flusher
+    private final PaddedCounter tail; // next sequence to reserve, moved by compare and set
+
+    /**
+     * Construct the log. The capacity is rounded up to a power of 2.
+     * The largest record is half the capacity less the header.
+     * @param capacity the capacity
+     */
+    public SharedByteLog(int capacity) {
+        if (capacity < 64 || capacity > (1 << 30)) {
+            throw new IllegalArgumentException("Capacity must be between 64 and 2^30.");
+        }
+        int size = Integer.highestOneBit(capacity);
+        if (size < capacity) {
+            size <<= 1;
+        }
+        data = new byte[size + ALIGN];
+        base = (ALIGN - ByteBuffer.wrap(data).alignmentOffset(0, ALIGN)) & (ALIGN - 1);
+        mask = size - 1;
+        maxRecord = size / 2 - HEADER;
+        head = new PaddedCounter();
+        tail = new PaddedCounter();
+    }
+
+    public int capacity() {
+        return mask + 1;
+    }
+
+    /**
+     * The largest number of bytes that can be reserved for one record
+     * @return the number of bytes
+     */
+    public int getMaxRecord() {
+        return maxRecord;
+    }
+
+    private static int align(int len) {
+        return (len + ALIGN - 1) & -ALIGN;
+    }
+
+    /**
+     * Reserve a region for a record, waiting for the flusher to make room if the log is full
+     * @param len the number of bytes to reserve
+     * @return the region
+     */
+    public Region reserve(int len) {
+        Region region = tryReserve(len);
+        int tries = 0;
+        while (region == null) {
+            if (tries++ < 100) {
+                Thread.onSpinWait();
+            }
+            else {
+                Thread.yield();
+            }
+            region = tryReserve(len);
+        }
+        return region;
+    }
+
+    /**
+     * Reserve a region for a record if there is room
+     * @param len the number of bytes to reserve
+     * @return the region or null if the log does not have room right now
+     */
+    public Region tryReserve(int len) {
+        if (len < 0 || len > maxRecord) {
+            throw new IllegalArgumentException("Record length must be between 0 and " + maxRecord + ".");
+        }
+        int recordSize = align(HEADER + len);
+        while (true) {
+            long t = tail.get();
+            int idx = (int)t & mask;
+            int padding = idx + recordSize > capacity() ? capacity() - idx : 0;
+            long next = t + padding + recordSize;
+            if (next - head.get() > capacity()) {
+                return null;
+            }
+            if (tail.compareAndSet(t, next)) {
+                if (padding > 0) {
+                    INT_VIEW.setRelease(data, base + idx, -padding);
+                    idx = 0;
+                }
+                return new Region(base + idx, recordSize, len);
+            }
+        }
+    }
+
+    /**
+     * A reserved region of the log. It is filled and committed by the thread that reserved it.
+     * Appending more than was reserved throws {@link BufferOverflowException}
+     */
+    public class Region implements ByteAppender {
+        private final int headerIdx;
+        private final int recordSize;
+        private final int start;
+        private final int end;
+        private int pos;
+        private boolean committed;
+
+        private Region(int headerIdx, int recordSize, int len) {
+            this.headerIdx = headerIdx;
+            this.recordSize = recordSize;
+            start = headerIdx + HEADER;
+            end = start + len;
+            pos = start;
+        }
+
+        /**
+         * The number of bytes that can still be appended
+         * @return the number of bytes
+         */
+        public int remaining() {
+            return end - pos;
+        }
+
+        /**
+         * The number of bytes appended so far
+         * @return the number of bytes
+         */
+        public int length() {
+            return pos - start;
+        }
+
+        private void check(int n) {
+            if (committed) {
+                throw new IllegalStateException("Region is already committed.");
+            }
+            if (n > end - pos) {
+                throw new BufferOverflowException();
+            }
+        }
+
+        @Override
+        public Region append(byte b) {
+            check(1);
+            data[pos++] = b;
+            return this;
+        }
+
+        @Override
+        public Region append(byte[] src, int offset, int len) {
+            if (len > 0) {
+                check(len);
+                System.arraycopy(src, offset, data, pos, len);
+                pos += len;
+            }
+            return this;
+        }
+
+        @Override
+        public Region append(byte[] src) {
+            return append(src, 0, src.length);
+        }
+
+        /**
+         * Append a String as ISO_8859_1, the same default as {@link ByteArrayBuilder}
+         * If the src is null, the word 'null' is appended.
+         * @param src the String
+         * @return this (fluent)
+         */
+        public Region append(String src) {
+            return append(src, ISO_8859_1);
+        }
+
+        @Override
+        public Region append(String src, Charset charset) {
+            ByteAppender.super.append(src, charset);
+            return this;
+        }
+
+        @Override
+        public Region append(int i) {
+            return append((long)i);
+        }
+
+        @Override
+        public Region append(long l) {
+            int size = AsciiNumbers.size(l);
+            check(size);
+            pos += size;
+            AsciiNumbers.putLong(data, pos, l);
+            return this;
+        }
+
+        /**
+         * Make the record visible to the flusher. Only the bytes appended are drained,
+         * it's fine to have appended fewer than were reserved.
+         */
+        public void commit() {
+            if (committed) {
+                throw new IllegalStateException("Region is already committed.");
+            }
+            committed = true;
+            INT_VIEW.set(data, headerIdx + 4, length());
+            INT_VIEW.setRelease(data, headerIdx, recordSize);
+        }
+    }
+
+    /**
+     * Drain the committed records in order, up to the first record that is not committed yet.
+     * Only to be called by the one flusher thread.
+     * Each record is handed to the handler as a view over the log,
+     * which is only valid during the call, the space is given back to producers after the handler returns.
+     * @param handler the handler
+     * @return the number of records drained
+     */
+    public int drain(Consumer<ByteBuffer> handler) {
+        long h = head.get();
+        long scan = h;
+        int records = 0;
+        while (true) {
+            int idx = base + ((int)scan & mask);
+            int size = (int)INT_VIEW.getAcquire(data, idx);
+            if (size == 0 || (scan - h) + Math.abs(size) > capacity()) {
+                break;
+            }
+            if (size > 0) {
+                int written = (int)INT_VIEW.get(data, idx + 4);
+                handler.accept(ByteBuffer.wrap(data, idx + HEADER, written).slice());
+                records++;
+            }
+            scan += Math.abs(size);
+        }
+        release(h, scan);
+        return records;
+    }
+
+    /**
+     * Drain the committed records in order and append them to another appender
+     * @param out the appender
+     * @return the number of bytes appended
+     */
+    public int drainTo(ByteAppender out) {
+        int[] total = new int[1];
+        drain(bb -> {
+            out.append(bb.array(), bb.arrayOffset(), bb.remaining());
+            total[0] += bb.remaining();
+        });
+        return total[0];
+    }
+
+    /**
+     * Drain the committed records in order and write them to the channel
+     * as one gathering write, straight from the log without copying.
+     * Keeps writing until everything is written.
+     * @param channel the channel
+     * @return the number of bytes written
+     * @throws IOException if the channel write fails
+     */
+    public long drainTo(GatheringByteChannel channel) throws IOException {
+        long h = head.get();
+        long scan = h;
+        List<ByteBuffer> views = new ArrayList<>();
+        long total = 0;
+        while (true) {
+            int idx = base + ((int)scan & mask);
+            int size = (int)INT_VIEW.getAcquire(data, idx);
+            if (size == 0 || (scan - h) + Math.abs(size) > capacity()) {
+                break;
+            }
+            if (size > 0) {
+                int written = (int)INT_VIEW.get(data, idx + 4);
+                views.add(ByteBuffer.wrap(data, idx + HEADER, written));
+                total += written;
+            }
+            scan += Math.abs(size);
+        }
+        ByteBuffer[] array = views.toArray(new ByteBuffer[0]);
+        long written = 0;
+        while (written < total) {
+            written += channel.write(array);
+        }
+        release(h, scan);
+        return written;
+    }
+
+    // Zero what was drained so stale bytes are never taken for a header, then give the space back.
+    private void release(long from, long to) {
+        if (to == from) {
+            return;
+        }
+        int idx = (int)from & mask;
+        int len = (int)(to - from);
+        int first = Math.min(len, capacity() - idx);
+        Arrays.fill(data, base + idx, base + idx + first, (byte)0);
+        if (first < len) {
+            Arrays.fill(data, base, base + len - first, (byte)0);
+        }
+        head.lazySet(to);
+    }
+}
@@ -0,0 +1,168 @@
+package scottf;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Digests large data as a Merkle tree instead of one long digest.
+ * The data is cut into fixed size leaves that are digested in parallel on a fork join pool,
+ * then pairs of digests are digested up to a single root, see {@link MerkleTree}.
+ * A leaf can be checked on its own, so a chunked upload can be verified piece by piece,
+ * and digesting a large file uses every core instead of one.
+ * <p>
+ * The digests come from a {@link DigesterPool}, so a tree digester can be shared by threads.
+ */
+public class TreeDigester {
+    public static final int DEFAULT_LEAF_SIZE = 1024 * 1024;
+    private static final int MAP_REGION_SIZE = 1 << 30;
+
+    private final DigesterPool pool;
+    private final int leafSize;
+    private final ForkJoinPool forkJoinPool;
+
+    /**
+     * Construct a SHA-256 tree digester with the default leaf size, on the common fork join pool
+     * @throws NoSuchAlgorithmException never for SHA-256
+     */
+    public TreeDigester() throws NoSuchAlgorithmException {
+        this(new DigesterPool(), DEFAULT_LEAF_SIZE, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Construct a tree digester
+     * @param pool the pool the digests come from, which decides the algorithm
+     * @param leafSize the size of every leaf but the last
+     * @param forkJoinPool the pool the leaves are digested on
+     */
+    public TreeDigester(DigesterPool pool, int leafSize, ForkJoinPool forkJoinPool) {
+        if (leafSize < 1) {
+            throw new IllegalArgumentException("Leaf size must be positive.");
+        }
+        this.pool = pool;
+        this.leafSize = leafSize;
+        this.forkJoinPool = forkJoinPool;
+    }
+
+    public int getLeafSize() {
+        return leafSize;
+    }
+
+    public MerkleTree digest(byte[] bytes) {
+        return digest(bytes, 0, bytes.length);
+    }
+
+    public MerkleTree digest(byte[] bytes, int off, int len) {
+        return digest(new ByteBuffer[]{ByteBuffer.wrap(bytes, off, len).slice()}, leafCount(len), len);
+    }
+
+    /**
+     * Digest a file, memory mapped so the leaves are digested straight from the mapping
+     * @param path the file
+     * @return the tree
+     * @throws IOException if the file cannot be read
+     */
+    public MerkleTree digest(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            int leavesPerRegion = Math.max(1, MAP_REGION_SIZE / leafSize);
+            long regionSize = (long)leavesPerRegion * leafSize;
+            ByteBuffer[] regions = new ByteBuffer[(int)Math.max(1, (size + regionSize - 1) / regionSize)];
+            for (int r = 0; r < regions.length; r++) {
+                long pos = r * regionSize;
+                regions[r] = channel.map(FileChannel.MapMode.READ_ONLY, pos, Math.min(regionSize, size - pos));
+            }
+            return digest(regions, leavesPerRegion, size);
+        }
+    }
+
+    /**
+     * Digest one leaf, for checking or replacing a leaf of a tree
+     * @param bytes the leaf data
+     * @param off the offset of the leaf
+     * @param len the length of the leaf
+     * @return the leaf digest
+     */
+    public byte[] digestLeaf(byte[] bytes, int off, int len) {
+        return digestLeaf(pool, ByteBuffer.wrap(bytes, off, len));
+    }
+
+    private int leafCount(long length) {
+        long count = Math.max(1, (length + leafSize - 1) / leafSize);
+        if (count > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Too many leaves, use a larger leaf size.");
+        }
+        return (int)count;
+    }
+
+    private MerkleTree digest(ByteBuffer[] regions, int leavesPerRegion, long length) {
+        byte[][] leaves = new byte[leafCount(length)][];
+        forkJoinPool.invoke(new LeafTask(regions, leavesPerRegion, leaves, 0, leaves.length));
+        return new MerkleTree(pool, leafSize, length, leaves);
+    }
+
+    // digests a range of leaves, splitting in half until there is one leaf
+    private class LeafTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final ByteBuffer[] regions;
+        private final int leavesPerRegion;
+        private final byte[][] leaves;
+        private final int from;
+        private final int to;
+
+        LeafTask(ByteBuffer[] regions, int leavesPerRegion, byte[][] leaves, int from, int to) {
+            this.regions = regions;
+            this.leavesPerRegion = leavesPerRegion;
+            this.leaves = leaves;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > 1) {
+                int mid = (from + to) >>> 1;
+                invokeAll(new LeafTask(regions, leavesPerRegion, leaves, from, mid),
+                    new LeafTask(regions, leavesPerRegion, leaves, mid, to));
+                return;
+            }
+            ByteBuffer leaf = regions[from / leavesPerRegion].duplicate();
+            int start = (from % leavesPerRegion) * leafSize;
+            leaf.limit(Math.min(leaf.capacity(), start + leafSize)).position(start);
+            leaves[from] = digestLeaf(pool, leaf);
+        }
+    }
+
+    // leaves and nodes are digested with a different first byte so a node can't pass for a leaf
+    static byte[] digestLeaf(DigesterPool pool, ByteBuffer leaf) {
+        MessageDigest digest = pool.acquire();
+        try {
+            digest.update((byte)0);
+            digest.update(leaf);
+            return digest.digest();
+        }
+        finally {
+            pool.release(digest);
+        }
+    }
+
+    static byte[] digestNode(DigesterPool pool, byte[] left, byte[] right) {
+        MessageDigest digest = pool.acquire();
+        try {
+            digest.update((byte)1);
+            digest.update(left);
+            digest.update(right);
+            return digest.digest();
+        }
+        finally {
+            pool.release(digest);
+        }
+    }
+}
@@ -0,0 +1,187 @@
+package scottf;
+
+import java.io.Closeable;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * A pool of reusable {@link Deflater} and {@link Inflater} instances.
+ * Each one holds native zlib memory that is only freed when it is ended or finalized,
+ * so reusing them, reset instead of re-created, saves that allocation and cleanup on every message.
+ * <p>
+ * The instances are raw deflate (nowrap), the caller writes any gzip or zlib header and trailer,
+ * see {@link GZipper}. Released instances beyond the maximum pooled are ended.
+ * An instance must not be used after it has been released.
+ */
+public class ZlibPool implements Closeable {
+    public static final int DEFAULT_MAX_POOLED = 2 * Runtime.getRuntime().availableProcessors();
+
+    private final int level;
+    private final int maxPooled;
+    private final ArrayBlockingQueue<Deflater> deflaters;
+    private final ArrayBlockingQueue<Inflater> inflaters;
+
+    private final LongAdder hits;
+    private final LongAdder misses;
+    private final LongAdder discards;
+
+    /**
+     * Construct the pool with the default compression level and maximum pooled
+     */
+    public ZlibPool() {
+        this(Deflater.DEFAULT_COMPRESSION, DEFAULT_MAX_POOLED);
+    }
+
+    /**
+     * Construct the pool with the compression level and the default maximum pooled
+     * @param level the compression level of the deflaters, 0-9 or {@link Deflater#DEFAULT_COMPRESSION}
+     */
+    public ZlibPool(int level) {
+        this(level, DEFAULT_MAX_POOLED);
+    }
+
+    /**
+     * Construct the pool
+     * @param level the compression level of the deflaters, 0-9 or {@link Deflater#DEFAULT_COMPRESSION}
+     * @param maxPooled the maximum number of each of deflaters and inflaters kept for reuse
+     */
+    public ZlibPool(int level, int maxPooled) {
+        if (level < Deflater.DEFAULT_COMPRESSION || level > Deflater.BEST_COMPRESSION) {
+            throw new IllegalArgumentException("Invalid compression level.");
+        }
+        this.level = level;
+        this.maxPooled = Math.max(1, maxPooled);
+        deflaters = new ArrayBlockingQueue<>(this.maxPooled);
+        inflaters = new ArrayBlockingQueue<>(this.maxPooled);
+        hits = new LongAdder();
+        misses = new LongAdder();
+        discards = new LongAdder();
+    }
+
+    /**
+     * Get a deflater ready for new input, from the pool if one is available, otherwise a new one
+     * @return the deflater
+     */
+    public Deflater acquireDeflater() {
+        Deflater deflater = deflaters.poll();
+        if (deflater != null) {
+            hits.increment();
+            return deflater;
+        }
+        misses.increment();
+        return new Deflater(level, true);
+    }
+
+    /**
+     * Return a deflater to the pool. It is reset, back to the level of the pool, or ended if the pool is full.
+     * @param deflater the deflater, null is ignored
+     */
+    public void release(Deflater deflater) {
+        if (deflater == null) {
+            return;
+        }
+        deflater.reset();
+        deflater.setLevel(level);
+        if (!deflaters.offer(deflater)) {
+            discards.increment();
+            deflater.end();
+        }
+    }
+
+    /**
+     * Get an inflater ready for new input, from the pool if one is available, otherwise a new one
+     * @return the inflater
+     */
+    public Inflater acquireInflater() {
+        Inflater inflater = inflaters.poll();
+        if (inflater != null) {
+            hits.increment();
+            return inflater;
+        }
+        misses.increment();
+        return new Inflater(true);
+    }
+
+    /**
+     * Return an inflater to the pool. It is reset, or ended if the pool is full.
+     * @param inflater the inflater, null is ignored
+     */
+    public void release(Inflater inflater) {
+        if (inflater == null) {
+            return;
+        }
+        inflater.reset();
+        if (!inflaters.offer(inflater)) {
+            discards.increment();
+            inflater.end();
+        }
+    }
+
+    public int getLevel() {
+        return level;
+    }
+
+    public int getMaxPooled() {
+        return maxPooled;
+    }
+
+    /**
+     * The number of deflaters and inflaters currently in the pool
+     * @return the count
+     */
+    public int size() {
+        return deflaters.size() + inflaters.size();
+    }
+
+    /**
+     * The number of acquires satisfied by the pool
+     * @return the count
+     */
+    public long getHits() {
+        return hits.sum();
+    }
+
+    /**
+     * The number of acquires that had to create a new instance
+     * @return the count
+     */
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    /**
+     * The number of released instances ended because the pool was full
+     * @return the count
+     */
+    public long getDiscards() {
+        return discards.sum();
+    }
+
+    /**
+     * End all the pooled instances. The pool can still be used, it just starts empty.
+     */
+    @Override
+    public void close() {
+        Deflater deflater;
+        while ((deflater = deflaters.poll()) != null) {
+            deflater.end();
+        }
+        Inflater inflater;
+        while ((inflater = inflaters.poll()) != null) {
+            inflater.end();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "ZlibPool{" +
+            "level=" + level +
+            ", maxPooled=" + maxPooled +
+            ", hits=" + getHits() +
+            ", misses=" + getMisses() +
+            ", discards=" + getDiscards() +
+            '}';
+    }
+}
@@ -0,0 +1,159 @@
+package scottf;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.zip.Deflater;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public final class BlockGZipTests {
+
+    private static byte[] records(int count) {
+        Random r = new Random(count);
+        ByteArrayBuilder bab = new ByteArrayBuilder();
+        for (int x = 0; x < count; x++) {
+            bab.append("record ").append(x).append(" value=").append(r.nextLong()).append((byte)'\n');
+        }
+        return bab.toByteArray();
+    }
+
+    @Test
+    public void testWriteAndRandomRead() throws IOException {
+        byte[] data = records(50_000); // about 20 blocks
+        Path path = Files.createTempFile("bgz", ".gz");
+        Path sidecar = Paths.get(path + BlockGZipIndex.SIDECAR_SUFFIX);
+        ForkJoinPool fjp = new ForkJoinPool(4);
+        try {
+            try (BlockGZipWriter w = new BlockGZipWriter(path)) {
+                w.write(data, 0, 100);
+                w.flush(); // short first block
+                w.write(data[100]);
+                w.write(data, 101, data.length - 101);
+                assertEquals(100, w.getIndex().getBlockLength(0));
+            }
+            byte[] file = Files.readAllBytes(path);
+
+            // readable as plain gzip, ending with the standard empty BGZF block
+            assertArrayEquals(data, GZipper.unzip(file));
+            byte[] eof = {0x1f, (byte)0x8b, 8, 4, 0, 0, 0, 0, 0, (byte)0xff, 6, 0, 'B', 'C', 2, 0, 0x1b, 0, 3, 0, 0, 0, 0, 0, 0, 0, 0, 0};
+            assertArrayEquals(eof, Arrays.copyOfRange(file, file.length - 28, file.length));
+
+            for (int pass = 0; pass < 2; pass++) {
+                if (pass == 1) {
+                    Files.delete(sidecar); // rebuilt from the headers
+                }
+                try (BlockGZipReader reader = new BlockGZipReader(path)) {
+                    BlockGZipIndex index = reader.getIndex();
+                    assertEquals(data.length, reader.length());
+                    assertTrue(index.size() > 10);
+                    assertEquals(100, index.getUncompressedOffset(1));
+                    assertEquals(0, index.blockOf(99));
+                    assertEquals(1, index.blockOf(100));
+                    assertEquals(-1, index.blockOf(data.length));
+
+                    Random r = new Random(pass);
+                    for (int x = 0; x < 50; x++) {
+                        int offset = r.nextInt(data.length);
+                        int len = r.nextInt(200_000);
+                        byte[] expected = Arrays.copyOfRange(data, offset, Math.min(data.length, offset + len));
+                        assertArrayEquals(expected, reader.read(offset, len));
+                        assertArrayEquals(expected, reader.read(offset, len, fjp));
+                    }
+                    assertEquals(0, reader.read(data.length, 10).length);
+                    assertArrayEquals(Arrays.copyOf(data, 100), reader.readBlock(0));
+                    int last = index.size() - 1;
+                    assertArrayEquals(Arrays.copyOfRange(data, (int)index.getUncompressedOffset(last), data.length), reader.readBlock(last));
+                }
+            }
+        }
+        finally {
+            fjp.shutdown();
+            Files.deleteIfExists(sidecar);
+            Files.delete(path);
+        }
+    }
+
+    @Test
+    public void testCorruptBlockThroughPool() throws IOException {
+        byte[] data = records(20_000);
+        Path path = Files.createTempFile("bgz", ".gz");
+        Path sidecar = Paths.get(path + BlockGZipIndex.SIDECAR_SUFFIX);
+        ForkJoinPool fjp = new ForkJoinPool(4);
+        try {
+            BlockGZipIndex index;
+            try (BlockGZipWriter w = new BlockGZipWriter(path)) {
+                w.write(data);
+                index = w.getIndex();
+            }
+            assertTrue(index.size() > 4);
+
+            // a wrong crc in the trailer of block 3, then garbage in the deflate data of block 2
+            byte[] file = Files.readAllBytes(path);
+            file[(int)index.getCompressedOffset(4) - 8] ^= 0x55;
+            Files.write(path, file);
+            try (BlockGZipReader reader = new BlockGZipReader(path)) {
+                assertArrayEquals(Arrays.copyOf(data, 1000), reader.read(0, 1000, fjp));
+                assertThrows(IOException.class, () -> reader.read(0, data.length, fjp));
+                assertThrows(IOException.class, () -> reader.read(0, data.length));
+            }
+
+            int deflateStart = (int)index.getCompressedOffset(2) + BlockGZipIndex.BLOCK_HEADER_LENGTH;
+            Arrays.fill(file, deflateStart, deflateStart + 64, (byte)0xff);
+            Files.write(path, file);
+            try (BlockGZipReader reader = new BlockGZipReader(path)) {
+                assertThrows(IOException.class, () -> reader.read(0, data.length, fjp));
+            }
+        }
+        finally {
+            fjp.shutdown();
+            Files.deleteIfExists(sidecar);
+            Files.delete(path);
+        }
+    }
+
+    @Test
+    public void testEmptyFile() throws IOException {
+        Path path = Files.createTempFile("bgz", ".gz");
+        Path sidecar = Paths.get(path + BlockGZipIndex.SIDECAR_SUFFIX);
+        try {
+            new BlockGZipWriter(path).close();
+            assertEquals(0, GZipper.unzip(Files.readAllBytes(path)).length);
+            for (int pass = 0; pass < 2; pass++) {
+                if (pass == 1) {
+                    Files.delete(sidecar);
+                }
+                try (BlockGZipReader reader = new BlockGZipReader(path)) {
+                    assertEquals(0, reader.getIndex().size());
+                    assertEquals(0, reader.length());
+                    assertEquals(0, reader.read(0, 10).length);
+                }
+            }
+        }
+        finally {
+            Files.deleteIfExists(sidecar);
+            Files.delete(path);
+        }
+    }
+
+    @Test
+    public void testIncompressibleBlocksFit() throws IOException {
+        byte[] random = new byte[BlockGZipWriter.MAX_BLOCK_SIZE * 3];
+        new Random(1).nextBytes(random);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        BlockGZipWriter w = new BlockGZipWriter(out, Deflater.BEST_SPEED, null);
+        w.write(random);
+        w.close();
+        assertEquals(3, w.getIndex().size());
+        assertTrue(w.getIndex().getCompressedOffset(1) <= 0x10000);
+        assertArrayEquals(random, GZipper.unzip(out.toByteArray()));
+        assertThrows(IOException.class, () -> GZipper.unzip(Arrays.copyOf(out.toByteArray(), 100)));
+    }
+}
@@ -0,0 +1,76 @@
+package scottf;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public final class ByteArrayBuilderPoolTests {
+
+    @Test
+    public void testAcquireRelease() {
+        ByteArrayBuilderPool pool = new ByteArrayBuilderPool(64, 1024, 2, 2);
+        ByteArrayBuilder bab1 = pool.acquire();
+        assertEquals(1, pool.getMisses());
+        assertEquals(64, bab1.capacity());
+        bab1.append("foo");
+
+        pool.release(bab1);
+        ByteArrayBuilder bab2 = pool.acquire();
+        assertSame(bab1, bab2);
+        assertEquals(0, bab2.length());
+        assertEquals(1, pool.getLocalHits());
+
+        // local is taken, so this is a miss
+        ByteArrayBuilder bab3 = pool.acquire();
+        assertNotSame(bab2, bab3);
+        assertEquals(2, pool.getMisses());
+
+        // first release goes local, second goes shared
+        pool.release(bab2);
+        pool.release(bab3);
+        assertSame(bab2, pool.acquire());
+        assertSame(bab3, pool.acquire());
+        assertEquals(1, pool.getSharedHits());
+        assertEquals(3, pool.getHits());
+    }
+
+    @Test
+    public void testOversizeAndDiscards() {
+        ByteArrayBuilderPool pool = new ByteArrayBuilderPool(32, 100, 1, 1);
+        ByteArrayBuilder big = pool.acquire();
+        big.ensureCapacity(200);
+        pool.release(big);
+        assertEquals(1, pool.getOversize());
+        assertNotSame(big, pool.acquire());
+
+        pool.release(new ByteArrayBuilder(32)); // local
+        pool.release(new ByteArrayBuilder(32)); // shared, only 1 slot
+        pool.release(new ByteArrayBuilder(32)); // discarded
+        assertEquals(1, pool.getDiscards());
+
+        pool.release(null);
+        assertEquals(1, pool.getOversize());
+        assertEquals(1, pool.getDiscards());
+    }
+
+    @Test
+    public void testSharedAcrossThreads() throws InterruptedException {
+        ByteArrayBuilderPool pool = new ByteArrayBuilderPool();
+        ByteArrayBuilder mine = pool.acquire();
+        ByteArrayBuilder other = pool.acquire();
+        pool.release(mine);
+        pool.release(other); // goes to the shared pool
+
+        AtomicReference<ByteArrayBuilder> fromThread = new AtomicReference<>();
+        CountDownLatch latch = new CountDownLatch(1);
+        new Thread(() -> {
+            fromThread.set(pool.acquire());
+            latch.countDown();
+        }).start();
+        latch.await();
+        assertSame(other, fromThread.get());
+    }
+}
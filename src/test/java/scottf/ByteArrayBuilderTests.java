@@ -2,13 +2,23 @@ package scottf;
 
 import org.junit.jupiter.api.Test;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.CharBuffer;
 import java.nio.charset.Charset;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.Pipe;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.security.SecureRandom;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Random;
 
 import static java.nio.charset.StandardCharsets.ISO_8859_1;
@@ -113,6 +123,279 @@ public class ByteArrayBuilderTests {
         assertEquals(0, bab.length());
     }
 
+    @Test
+    public void appendNumbers() {
+        long[] longs = {0, 1, -1, 9, 10, 99, 100, -100, 12345, Integer.MAX_VALUE, Integer.MIN_VALUE,
+            999_999_999_999L, 1_000_000_000_000_000_000L, Long.MAX_VALUE, Long.MIN_VALUE, Long.MIN_VALUE + 1};
+        for (long l : longs) {
+            assertEquals(Long.toString(l), new ByteArrayBuilder(1).append(l).toString());
+            assertEquals(Long.toUnsignedString(l), new ByteArrayBuilder(1).appendUnsigned(l).toString());
+            assertEquals(Long.toHexString(l), new ByteArrayBuilder(1).appendHex(l).toString());
+            assertEquals(Integer.toString((int)l), new ByteArrayBuilder(1).append((int)l).toString());
+            assertEquals(Integer.toHexString((int)l), new ByteArrayBuilder(1).appendHex((int)l).toString());
+        }
+        for (int x = 0; x < 10_000; x++) {
+            long l = PRAND.nextLong() >> PRAND.nextInt(64);
+            assertEquals(Long.toString(l), new ByteArrayBuilder().append(l).toString());
+            assertEquals(Long.toUnsignedString(l), new ByteArrayBuilder().appendUnsigned(l).toString());
+        }
+
+        assertEquals("00042", new ByteArrayBuilder().appendPadded(42, 5).toString());
+        assertEquals("-005", new ByteArrayBuilder().appendPadded(-5, 3).toString());
+        assertEquals("12345", new ByteArrayBuilder().appendPadded(12345, 3).toString());
+        assertEquals("0", new ByteArrayBuilder().appendPadded(0, 0).toString());
+        assertEquals("000000ff", new ByteArrayBuilder().appendHex(255, 8).toString());
+        assertEquals("ff", new ByteArrayBuilder().appendHex(255, 1).toString());
+    }
+
+    @Test
+    public void appendDouble() {
+        assertEquals("3.14", new ByteArrayBuilder().append(3.14159, 2).toString());
+        assertEquals("3.142", new ByteArrayBuilder().append(3.14159, 3).toString());
+        assertEquals("3", new ByteArrayBuilder().append(3.14159, 0).toString());
+        assertEquals("4", new ByteArrayBuilder().append(3.5, -1).toString());
+        assertEquals("-2.50", new ByteArrayBuilder().append(-2.5, 2).toString());
+        assertEquals("0.05", new ByteArrayBuilder().append(0.05, 2).toString());
+        assertEquals("0.000", new ByteArrayBuilder().append(-0.0001, 3).toString());
+        assertEquals("100.00", new ByteArrayBuilder().append(99.999, 2).toString());
+        assertEquals("NaN", new ByteArrayBuilder().append(Double.NaN, 2).toString());
+        assertEquals("-Infinity", new ByteArrayBuilder().append(Double.NEGATIVE_INFINITY, 2).toString());
+        assertEquals("10000000000000000000.0", new ByteArrayBuilder().append(1e19, 1).toString());
+        assertEquals("1.0000000000000000000", new ByteArrayBuilder().append(1.0, 19).toString());
+    }
+
+    @Test
+    public void direct() throws IOException {
+        ByteArrayBuilder bab = new ByteArrayBuilder(4, 4, ISO_8859_1, true);
+        assertTrue(bab.isDirect());
+        assertFalse(new ByteArrayBuilder().isDirect());
+        assertThrows(UnsupportedOperationException.class, bab::internalArray);
+
+        bab.append("foo").append((byte)' ').append(-1234L).append((byte)' ').appendPadded(7, 3)
+            .append((byte)' ').appendHex(255, 4).append((byte)' ').append(2.5, 2)
+            .append(new ByteArrayBuilder().append("heap"))
+            .append(new ByteArrayBuilder(1, 1, ISO_8859_1, true).append("direct"));
+        String expected = "foo -1234 007 00ff 2.50heapdirect";
+        assertEquals(expected, bab.toString());
+        assertTrue(bab.equals(expected.getBytes(ISO_8859_1)));
+        assertFalse(bab.equals("foo -1234 007 00ff 2.50heapdirecT".getBytes(ISO_8859_1)));
+
+        byte[] target = new byte[expected.length() + 2];
+        assertEquals(expected.length(), bab.copyTo(target, 2));
+        assertEquals(expected, new String(target, 2, expected.length(), ISO_8859_1));
+
+        bab.append(bab);
+        assertEquals(expected + expected, bab.toString());
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        assertEquals(expected.length() * 2, bab.writeTo(Channels.newChannel(out)));
+        assertEquals(expected + expected, out.toString(ISO_8859_1.name()));
+        assertEquals(expected.length() * 2, bab.length()); // writing doesn't consume
+    }
+
+    @Test
+    public void gatheringWrite() throws IOException {
+        ByteArrayBuilder line = new ByteArrayBuilder().append("PUB foo 5\r\n");
+        ByteArrayBuilder payload = new ByteArrayBuilder(8, 8, ISO_8859_1, true).append("hello");
+        ByteArrayBuilder crlf = new ByteArrayBuilder().append("\r\n");
+        Path path = Files.createTempFile("bab", ".txt");
+        try {
+            try (FileChannel fc = FileChannel.open(path, StandardOpenOption.WRITE)) {
+                assertEquals(18, ByteArrayBuilder.writeTo(fc, line, payload, crlf));
+            }
+            assertEquals("PUB foo 5\r\nhello\r\n", new String(Files.readAllBytes(path), ISO_8859_1));
+        }
+        finally {
+            Files.delete(path);
+        }
+
+        // a non-blocking channel that fills up stops the write instead of spinning
+        Pipe pipe = Pipe.open();
+        pipe.sink().configureBlocking(false);
+        ByteArrayBuilder big = new ByteArrayBuilder(1024 * 1024).append(new byte[1024 * 1024]);
+        try {
+            int written = big.writeTo(pipe.sink());
+            assertTrue(written > 0 && written < big.length());
+            long gathered = ByteArrayBuilder.writeTo(pipe.sink(), line, big);
+            assertTrue(gathered < line.length() + big.length());
+        }
+        finally {
+            pipe.sink().close();
+            pipe.source().close();
+        }
+    }
+
+    @Test
+    public void appendEncoded() {
+        String[] strings = {"", "plain ascii", "caf\u00e9 \u00ff", "\u00e9 first", "mixed \u20ac euro",
+            "emoji \ud83d\ude00 pair", "lone \ud83d surrogate", "\u4e2d\u6587", "end \udc00"};
+        Charset[] charsets = {ISO_8859_1, StandardCharsets.US_ASCII, StandardCharsets.UTF_8, StandardCharsets.UTF_16};
+        for (Charset charset : charsets) {
+            for (boolean direct : new boolean[]{false, true}) {
+                ByteArrayBuilder bab = new ByteArrayBuilder(1, 1, charset, direct);
+                ByteArrayBuilder babCb = new ByteArrayBuilder(1, 1, charset, direct);
+                ByteArrayOutputStream expected = new ByteArrayOutputStream();
+                for (String s : strings) {
+                    byte[] bytes = s.getBytes(charset);
+                    expected.write(bytes, 0, bytes.length);
+                    bab.append(s);
+                    CharBuffer cb = CharBuffer.wrap("xx" + s);
+                    cb.position(2);
+                    babCb.append(cb);
+                    assertEquals(2, cb.position()); // appending doesn't consume
+                    assertArrayEquals(bytes, new ByteArrayBuilder(1, 1, charset, direct).append(s).toByteArray());
+                }
+                assertArrayEquals(expected.toByteArray(), bab.toByteArray());
+                assertArrayEquals(expected.toByteArray(), babCb.toByteArray());
+            }
+        }
+
+        // alternate charsets on the same builder
+        ByteArrayBuilder bab = new ByteArrayBuilder();
+        bab.append("\u20ac", StandardCharsets.UTF_8).append("\u20ac", StandardCharsets.UTF_16).append("\u20ac", StandardCharsets.UTF_8);
+        assertEquals("\u20ac", new String(bab.toByteArray(), 0, 3, StandardCharsets.UTF_8));
+        assertEquals("\u20ac", new String(bab.toByteArray(), 3, 4, StandardCharsets.UTF_16));
+        assertEquals("\u20ac", new String(bab.toByteArray(), 7, 3, StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void growthStrategies() {
+        assertEquals(64, GrowthStrategy.fixed(32).newCapacity(32, 33));
+        assertEquals(96, GrowthStrategy.fixed(32).newCapacity(32, 64));
+        assertEquals(64, GrowthStrategy.doubling().newCapacity(32, 33));
+        assertEquals(500, GrowthStrategy.doubling().newCapacity(32, 500));
+        assertEquals(GrowthStrategy.MAX_CAPACITY, GrowthStrategy.doubling().newCapacity(Integer.MAX_VALUE / 2 + 1, Integer.MAX_VALUE / 2 + 2));
+        assertEquals(2048, GrowthStrategy.cappedDoubling(1024).newCapacity(1024, 1025));
+        assertEquals(5120, GrowthStrategy.cappedDoubling(1024).newCapacity(4096, 4097));
+        assertEquals(256, GrowthStrategy.sizeClasses(128, 256, 1024).newCapacity(128, 129));
+        assertEquals(1024, GrowthStrategy.sizeClasses(128, 256, 1024).newCapacity(256, 1024));
+        assertEquals(3072, GrowthStrategy.sizeClasses(128, 256, 1024).newCapacity(1024, 2049));
+        assertThrows(IllegalArgumentException.class, GrowthStrategy::sizeClasses);
+        assertThrows(IllegalArgumentException.class, () -> GrowthStrategy.sizeClasses(256, 128));
+
+        ByteArrayBuilder fixed = new ByteArrayBuilder();
+        ByteArrayBuilder doubling = new ByteArrayBuilder().setGrowthStrategy(GrowthStrategy.doubling());
+        assertNull(fixed.getGrowthStrategy());
+        assertNotNull(doubling.getGrowthStrategy());
+        byte[] chunk = new byte[100];
+        for (int x = 0; x < 1000; x++) {
+            fixed.append(chunk);
+            doubling.append(chunk);
+        }
+        assertEquals(100_000, fixed.length());
+        assertEquals(100_000, doubling.length());
+        assertEquals(102_400, doubling.capacity()); // 100, 200, 400 ...
+        assertEquals(11, doubling.getResizeCount());
+        assertEquals(1000, fixed.getResizeCount()); // every append
+        assertTrue(fixed.getBytesCopied() > doubling.getBytesCopied());
+        assertArrayEquals(fixed.toByteArray(), doubling.toByteArray());
+
+        doubling.resetGrowthStats();
+        assertEquals(0, doubling.getResizeCount());
+        assertEquals(0, doubling.getBytesCopied());
+    }
+
+    @Test
+    public void searchAndCompare() {
+        for (boolean direct : new boolean[]{false, true}) {
+            ByteArrayBuilder bab = new ByteArrayBuilder(8, 8, ISO_8859_1, direct)
+                .append("HPUB subject 12 34\r\nNATS/1.0\r\n\r\npayload");
+            String s = bab.toString();
+            for (char c : "HPUBs 1\r\nN/.0yXZ".toCharArray()) {
+                assertEquals(s.indexOf(c), bab.indexOf((byte)c));
+                assertEquals(s.indexOf(c, 10), bab.indexOf((byte)c, 10));
+            }
+            assertEquals(-1, bab.indexOf((byte)'H', 100));
+            assertEquals(0, bab.indexOf((byte)'H', -1));
+            assertEquals(s.indexOf("\r\n"), bab.indexOf("\r\n".getBytes()));
+            assertEquals(s.indexOf("\r\n", 20), bab.indexOf("\r\n".getBytes(), 20));
+            assertEquals(s.indexOf("\r\n\r\n"), bab.indexOf("\r\n\r\n".getBytes()));
+            assertEquals(s.indexOf("payload"), bab.indexOf("payload".getBytes()));
+            assertEquals(-1, bab.indexOf("payloads".getBytes()));
+            assertEquals(-1, bab.indexOf("nope".getBytes()));
+            assertEquals(5, bab.indexOf(new byte[0], 5));
+
+            assertTrue(bab.startsWith("HPUB ".getBytes()));
+            assertTrue(bab.startsWith(new byte[0]));
+            assertFalse(bab.startsWith("PUB".getBytes()));
+            assertTrue(bab.endsWith("payload".getBytes()));
+            assertFalse(bab.endsWith("paylod".getBytes()));
+            assertFalse(new ByteArrayBuilder().append("x").endsWith("xx".getBytes()));
+
+            byte[] same = s.getBytes(ISO_8859_1);
+            assertTrue(bab.equals(same));
+            assertEquals(-1, bab.mismatch(same));
+            assertEquals(0, bab.compareTo(same));
+            assertEquals(2, bab.mismatch("HPX".getBytes()));
+            assertTrue(bab.compareTo("HPX".getBytes()) < 0);
+            assertTrue(bab.compareTo("HPUA".getBytes()) > 0);
+            assertTrue(bab.compareTo("HPUB".getBytes()) > 0);
+            assertTrue(bab.compareTo((s + "x").getBytes(ISO_8859_1)) < 0);
+
+            ByteArrayBuilder other = new ByteArrayBuilder().append(s);
+            assertEquals(-1, bab.mismatch(other));
+            assertEquals(0, bab.compareTo(other));
+            other.append(new byte[]{(byte)0x80});
+            assertEquals(s.length(), bab.mismatch(other));
+            assertTrue(bab.compareTo(other) < 0);
+            assertTrue(other.compareTo(bab) > 0);
+            // unsigned
+            assertTrue(new ByteArrayBuilder().append((byte)0x80).compareTo(new byte[]{1}) > 0);
+        }
+
+        byte[] random = new byte[1000];
+        PRAND.nextBytes(random);
+        ByteArrayBuilder bab = new ByteArrayBuilder(random);
+        for (int b = -128; b < 128; b++) {
+            int expected = -1;
+            for (int x = 0; x < random.length && expected == -1; x++) {
+                if (random[x] == b) {
+                    expected = x;
+                }
+            }
+            assertEquals(expected, bab.indexOf((byte)b));
+        }
+    }
+
+    @Test
+    public void testHashing() {
+        // reference values
+        assertEquals(0xEF46DB3751D8E999L, new ByteArrayBuilder().hash64());
+        assertEquals(0x44BC2CF5AD770999L, new ByteArrayBuilder().append("abc").hash64());
+        String fox = "The quick brown fox jumps over the lazy dog";
+        assertEquals(0x0B242D361FDA71BCL, new ByteArrayBuilder().append(fox).hash64());
+        assertEquals(0, new ByteArrayBuilder().hash32());
+        assertEquals(0x514E28B7, new ByteArrayBuilder().hash32(1));
+        assertEquals(0x248BFA47, new ByteArrayBuilder().append("hello").hash32());
+        assertEquals(0x2E4FF723, new ByteArrayBuilder().append(fox).hash32());
+
+        // every length through the tails, heap, direct and array all agree
+        byte[] random = new byte[100];
+        PRAND.nextBytes(random);
+        for (int len = 0; len <= random.length; len++) {
+            ByteArrayBuilder heap = new ByteArrayBuilder().append(random, len);
+            ByteArrayBuilder direct = new ByteArrayBuilder(10, 10, ISO_8859_1, true).append(random, len);
+            assertEquals(ByteHash.xxHash64(random, 0, len, 7), heap.hash64(7));
+            assertEquals(heap.hash64(7), direct.hash64(7));
+            assertEquals(ByteHash.murmur3(random, 0, len, 7), heap.hash32(7));
+            assertEquals(heap.hash32(7), direct.hash32(7));
+        }
+        byte[] shifted = new byte[105];
+        System.arraycopy(random, 0, shifted, 5, 100);
+        assertEquals(ByteHash.xxHash64(random), ByteHash.xxHash64(shifted, 5, 100, 0));
+        assertEquals(ByteHash.murmur3(random), ByteHash.murmur3(shifted, 5, 100, 0));
+
+        Map<ContentKey, Integer> map = new HashMap<>();
+        map.put(new ByteArrayBuilder().append("one").contentKey(), 1);
+        map.put(new ByteArrayBuilder(10, 10, ISO_8859_1, true).append("two").contentKey(), 2);
+        assertEquals(1, (int)map.get(new ByteArrayBuilder(10, 10, ISO_8859_1, true).append("one").contentKey()));
+        assertEquals(2, (int)map.get(new ByteArrayBuilder().append("two").contentKey()));
+        assertNull(map.get(new ByteArrayBuilder().append("twos").contentKey()));
+        ContentKey key = new ByteArrayBuilder().append("one").contentKey();
+        assertEquals("one", key.toString());
+        assertEquals(key.getBuilder().hash64(), key.hash64());
+    }
+
     private void _test(Random r, ByteArrayBuilder bab, List<String> testStrings, Charset charset) {
         String expectedString = "";
         for (String testString : testStrings) {
@@ -0,0 +1,150 @@
+package scottf;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.BufferUnderflowException;
+import java.util.Arrays;
+
+import static java.nio.charset.StandardCharsets.ISO_8859_1;
+import static org.junit.jupiter.api.Assertions.*;
+
+public final class ByteCursorTests {
+
+    @Test
+    public void testProtocolParsing() {
+        for (boolean direct : new boolean[]{false, true}) {
+            ByteArrayBuilder bab = new ByteArrayBuilder(8, 8, ISO_8859_1, direct)
+                .append("MSG foo.bar  9 -11\r\nhello\nPING\r\nPART");
+            ByteCursor cursor = bab.reader();
+            assertEquals(bab.length(), cursor.length());
+
+            ByteCursor line = cursor.readLine();
+            assertEquals("MSG foo.bar  9 -11", line.toString());
+            assertEquals("MSG", line.readUntil((byte)' ').toString());
+            assertEquals("foo.bar", line.readUntil((byte)' ').toString());
+            line.skipAll((byte)' ');
+            assertEquals(9, line.readAsciiInt());
+            line.skip(1);
+            assertEquals(-11, line.readAsciiLong());
+            assertFalse(line.hasRemaining());
+
+            assertEquals("hello", cursor.readLine().toString());
+            cursor.mark();
+            assertEquals("PING", cursor.readLine().toString());
+            cursor.reset();
+            assertEquals('P', cursor.peek());
+            assertEquals("PING", cursor.readLine().toString());
+
+            int p = cursor.position();
+            assertNull(cursor.readLine()); // incomplete
+            assertEquals(p, cursor.position());
+            assertEquals("PART", cursor.readUntil((byte)' ').toString());
+
+            cursor.rewind();
+            assertEquals("MSG", cursor.readString(3, ISO_8859_1));
+            assertArrayEquals(" foo".getBytes(), cursor.readBytes(4));
+            assertEquals('.', cursor.readByte());
+        }
+    }
+
+    @Test
+    public void testNumbers() {
+        ByteCursor cursor = new ByteCursor(new ByteArrayBuilder()
+            .append(Long.MAX_VALUE).append((byte)' ')
+            .append(Long.MIN_VALUE).append((byte)' ')
+            .append("9223372036854775808 x 2147483648 -").toByteArray());
+        assertEquals(Long.MAX_VALUE, cursor.readAsciiLong());
+        cursor.skip(1);
+        assertEquals(Long.MIN_VALUE, cursor.readAsciiLong());
+        cursor.skip(1);
+        assertThrows(NumberFormatException.class, cursor::readAsciiLong);
+        cursor.skip(20);
+        assertThrows(NumberFormatException.class, cursor::readAsciiLong);
+        cursor.skip(2);
+        int p = cursor.position();
+        assertThrows(NumberFormatException.class, cursor::readAsciiInt);
+        assertEquals(p, cursor.position());
+        assertEquals(2147483648L, cursor.readAsciiLong());
+        cursor.skip(1);
+        assertThrows(NumberFormatException.class, cursor::readAsciiLong);
+    }
+
+    @Test
+    public void testBinaryAndSlices() {
+        byte[] bytes = {0, 0, 0, 0, 0, 0, 0, 0, 1, 2, 3, 4, (byte)0xFF, 0x7F, 9, 8, 7};
+        ByteCursor cursor = new ByteCursor(bytes, 0, 16);
+        assertEquals(0, cursor.readLong());
+        assertEquals(0x01020304, cursor.readInt());
+        assertEquals(255, cursor.readUnsignedByte());
+        assertEquals(0x7F, cursor.get(13));
+        ByteCursor slice = cursor.slice(2);
+        assertEquals(2, slice.length());
+        assertEquals(1, cursor.remaining());
+        assertEquals(0x7F09, slice.readShort());
+        assertThrows(BufferUnderflowException.class, slice::readByte);
+
+        // slices share the bytes
+        ByteCursor offset = new ByteCursor(bytes, 8, 4);
+        bytes[9] = 42;
+        assertEquals(1, offset.readByte());
+        assertEquals(42, offset.readByte());
+        assertEquals(-1, offset.indexOf((byte)9));
+        assertEquals(3, offset.indexOf((byte)4));
+    }
+
+    @Test
+    public void testBinaryRoundTrip() {
+        long[] longs = {0, 1, -1, 63, 64, -64, -65, 127, 128, 300, Integer.MAX_VALUE, Integer.MIN_VALUE, Long.MAX_VALUE, Long.MIN_VALUE};
+        // the builder's own implementation and the ByteAppender defaults used by the segmented builder
+        ByteAppender[] appenders = {new ByteArrayBuilder(1), new ByteArrayBuilder(1, 1, ISO_8859_1, true), new SegmentedByteArrayBuilder(3)};
+        byte[][] results = new byte[appenders.length][];
+        for (int a = 0; a < appenders.length; a++) {
+            ByteAppender out = appenders[a];
+            for (long l : longs) {
+                out.putShort((short)l).putShortLE((short)l)
+                    .putInt((int)l).putIntLE((int)l)
+                    .putLong(l).putLongLE(l)
+                    .putDouble(l / 3.0).putDoubleLE(l / 3.0)
+                    .putVarint(l).putZigZag(l);
+            }
+            out.putLengthPrefixed("hello".getBytes()).putLengthPrefixed(new byte[0]).putLengthPrefixed("xabcx".getBytes(), 1, 3);
+            results[a] = out instanceof ByteArrayBuilder
+                ? ((ByteArrayBuilder)out).toByteArray()
+                : ((SegmentedByteArrayBuilder)out).toByteArray();
+
+            ByteCursor cursor = new ByteCursor(results[a]);
+            for (long l : longs) {
+                assertEquals((short)l, cursor.readShort());
+                assertEquals((short)l, cursor.readShortLE());
+                assertEquals((int)l, cursor.readInt());
+                assertEquals((int)l, cursor.readIntLE());
+                assertEquals(l, cursor.readLong());
+                assertEquals(l, cursor.readLongLE());
+                assertEquals(l / 3.0, cursor.readDouble());
+                assertEquals(l / 3.0, cursor.readDoubleLE());
+                assertEquals(l, cursor.readVarint());
+                assertEquals(l, cursor.readZigZag());
+            }
+            assertEquals("hello", cursor.readLengthPrefixed().toString());
+            assertEquals(0, cursor.readLengthPrefixed().length());
+            assertEquals("abc", cursor.readLengthPrefixed().toString());
+            assertFalse(cursor.hasRemaining());
+        }
+        assertArrayEquals(results[0], results[1]);
+        assertArrayEquals(results[0], results[2]);
+
+        // sizes
+        assertEquals(1, new ByteArrayBuilder().putVarint(127).length());
+        assertEquals(2, new ByteArrayBuilder().putVarint(128).length());
+        assertEquals(10, new ByteArrayBuilder().putVarint(-1).length());
+        assertEquals(1, new ByteArrayBuilder().putZigZag(-64).length());
+        for (long l : longs) {
+            assertEquals(new ByteArrayBuilder().putVarint(l).length(), ByteAppender.varintSize(l));
+        }
+
+        byte[] malformed = new byte[11];
+        Arrays.fill(malformed, (byte)0x80);
+        assertThrows(NumberFormatException.class, () -> new ByteCursor(malformed).readVarint());
+        assertThrows(BufferUnderflowException.class, () -> new ByteCursor(new byte[]{(byte)0x80}).readVarint());
+    }
+}
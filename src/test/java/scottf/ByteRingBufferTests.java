@@ -0,0 +1,111 @@
+package scottf;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static java.nio.charset.StandardCharsets.ISO_8859_1;
+import static org.junit.jupiter.api.Assertions.*;
+
+public final class ByteRingBufferTests {
+
+    @Test
+    public void testSingleThreaded() {
+        ByteRingBuffer ring = new ByteRingBuffer(10);
+        assertEquals(16, ring.capacity());
+        ByteRingBuffer.Producer p = ring.producer();
+        ByteRingBuffer.Consumer c = ring.consumer();
+        assertEquals(16, p.writable());
+        assertEquals(-1, c.read());
+        assertEquals(0, c.peek().remaining());
+
+        p.append("PING\r\n", ISO_8859_1).append(12345).append((byte)'\n');
+        assertEquals(12, c.available());
+        assertEquals("PING", c.cursor().readLine().toString());
+        c.advance(6);
+        assertEquals(12345, c.cursor().readAsciiInt());
+        c.advance(5);
+        assertEquals('\n', c.read());
+
+        // wrap around the end
+        assertEquals(16, p.offer("abcdefghijklmnopqrstuvwxyz".getBytes(), 0, 26));
+        assertEquals(0, p.offer("z".getBytes(), 0, 1));
+        ByteBuffer first = c.peek();
+        assertEquals(4, first.remaining());
+        assertEquals('a', first.get(0));
+        c.advance(4);
+        assertEquals("efghijklmnop", c.cursor().toString());
+        assertThrows(IllegalArgumentException.class, () -> c.advance(13));
+
+        byte[] dest = new byte[20];
+        assertEquals(3, c.read(dest, 0, 3));
+        assertEquals("efg", new String(dest, 0, 3, ISO_8859_1));
+        ByteArrayBuilder bab = new ByteArrayBuilder();
+        assertEquals(9, c.drainTo(bab));
+        assertEquals("hijklmnop", bab.toString());
+        assertEquals(0, c.read(dest, 0, 20));
+
+        assertFalse(c.isEnd());
+        p.append((byte)'x');
+        p.close();
+        assertTrue(ring.isClosed());
+        assertFalse(c.isEnd());
+        assertEquals(1, c.read(dest, 0, 20));
+        assertTrue(c.isEnd());
+        assertEquals(-1, c.read(dest, 0, 20));
+    }
+
+    @Test
+    public void testStreamBetweenThreads() throws Exception {
+        ByteRingBuffer ring = new ByteRingBuffer(1024);
+        byte[] expected = new byte[1_000_000];
+        new Random(42).nextBytes(expected);
+
+        AtomicReference<Throwable> error = new AtomicReference<>();
+        Thread producer = new Thread(() -> {
+            try {
+                Random r = new Random(7);
+                int pos = 0;
+                while (pos < expected.length) {
+                    int len = Math.min(expected.length - pos, r.nextInt(3000));
+                    if (len == 1) {
+                        ring.producer().append(expected[pos]);
+                    }
+                    else {
+                        ring.producer().append(expected, pos, len);
+                    }
+                    pos += len;
+                }
+                ring.producer().close();
+            }
+            catch (Throwable t) {
+                error.set(t);
+            }
+        });
+        producer.start();
+
+        ByteArrayBuilder received = new ByteArrayBuilder(expected.length);
+        byte[] buf = new byte[700];
+        ByteRingBuffer.Consumer c = ring.consumer();
+        int loops = 0;
+        while (!c.isEnd()) {
+            if (loops++ % 2 == 0) {
+                int n = c.read(buf, 0, buf.length);
+                if (n > 0) {
+                    received.append(buf, 0, n);
+                }
+            }
+            else {
+                ByteBuffer view = c.peek();
+                int n = view.remaining();
+                received.append(view.array(), view.arrayOffset(), n);
+                c.advance(n);
+            }
+        }
+        producer.join();
+        assertNull(error.get());
+        assertTrue(received.equals(expected));
+    }
+}
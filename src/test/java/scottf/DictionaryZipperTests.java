@@ -0,0 +1,90 @@
+package scottf;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.ZipException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public final class DictionaryZipperTests {
+    private static final String[] STATUS = {"pending", "shipped", "delivered", "cancelled"};
+    private static final String[] CITY = {"Boston", "Denver", "Austin", "Portland", "Chicago"};
+
+    // messages of a few hundred bytes with the same keys and vocabulary
+    private static byte[] message(Random r) {
+        return new ByteArrayBuilder()
+            .append("{\"orderId\":\"ord-").append(r.nextInt(1_000_000))
+            .append("\",\"customer\":{\"id\":").append(r.nextInt(100_000))
+            .append(",\"city\":\"").append(CITY[r.nextInt(CITY.length)])
+            .append("\",\"loyaltyTier\":\"").append(r.nextBoolean() ? "gold" : "silver")
+            .append("\"},\"status\":\"").append(STATUS[r.nextInt(STATUS.length)])
+            .append("\",\"items\":[{\"sku\":\"SKU-").append(r.nextInt(5000))
+            .append("\",\"quantity\":").append(r.nextInt(10))
+            .append(",\"unitPrice\":").append(r.nextInt(10_000), 2)
+            .append("}],\"createdAt\":\"2024-0").append(1 + r.nextInt(9)).append("-1").append(r.nextInt(10))
+            .append("T12:").append(10 + r.nextInt(50)).append(":00Z\",\"currency\":\"USD\"}")
+            .toByteArray();
+    }
+
+    @Test
+    public void testTrainAndZip() throws IOException {
+        Random r = new Random(42);
+        List<byte[]> samples = new ArrayList<>();
+        for (int x = 0; x < 500; x++) {
+            samples.add(message(r));
+        }
+        DeflateDictionary dictionary = DeflateDictionary.train(samples, 4096);
+        assertTrue(dictionary.length() > 0 && dictionary.length() <= 4096);
+        assertEquals(dictionary.getId(), new DeflateDictionary(dictionary.getBytes()).getId());
+
+        ZlibPool pool = new ZlibPool();
+        DictionaryZipper zipper = new DictionaryZipper(dictionary, pool);
+        long gzipTotal = 0;
+        long dictTotal = 0;
+        for (int x = 0; x < 100; x++) {
+            byte[] msg = message(r); // not in the samples
+            byte[] zipped = zipper.zip(msg);
+            assertEquals(dictionary.getId(), DictionaryZipper.dictionaryId(zipped));
+            assertArrayEquals(msg, zipper.unzip(zipped));
+            gzipTotal += new GZipper().zip(msg).finish().length;
+            dictTotal += zipped.length;
+        }
+        // at least half the size of gzip on its own
+        assertTrue(dictTotal * 2 < gzipTotal, dictTotal + " vs " + gzipTotal);
+        assertEquals(0, pool.getDiscards());
+
+        ByteArrayBuilder out = new ByteArrayBuilder().append("xx");
+        byte[] msg = message(r);
+        int n = zipper.zip(msg, 0, msg.length, out);
+        assertArrayEquals(msg, zipper.unzip(out.internalArray(), 2, n));
+
+        byte[] zipped = zipper.zip(msg);
+        DictionaryZipper other = new DictionaryZipper(new DeflateDictionary("other".getBytes()));
+        assertThrows(ZipException.class, () -> other.unzip(zipped));
+        assertThrows(EOFException.class, () -> zipper.unzip(Arrays.copyOf(zipped, zipped.length - 3)));
+        assertThrows(EOFException.class, () -> zipper.unzip(Arrays.copyOf(zipped, 3)));
+
+        // a 10 byte varint that decodes negative, and a length far beyond what the data can inflate to
+        byte[] negative = new ByteArrayBuilder().putInt(dictionary.getId()).putVarint(-1L).append(new byte[8]).toByteArray();
+        assertThrows(ZipException.class, () -> zipper.unzip(negative));
+        byte[] huge = new ByteArrayBuilder().putInt(dictionary.getId()).putVarint(1_000_000_000).append(new byte[8]).toByteArray();
+        assertThrows(ZipException.class, () -> zipper.unzip(huge));
+        assertArrayEquals(new byte[0], zipper.unzip(zipper.zip(new byte[0])));
+    }
+
+    @Test
+    public void testTrainEdgeCases() {
+        assertEquals(0, DeflateDictionary.train(new ArrayList<>()).length());
+        List<byte[]> one = new ArrayList<>();
+        one.add("only one sample has nothing in common".getBytes());
+        assertEquals(0, DeflateDictionary.train(one).length());
+        one.add("only one sample has nothing in common".getBytes());
+        assertTrue(DeflateDictionary.train(one).length() > 0);
+    }
+}
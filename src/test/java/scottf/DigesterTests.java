@@ -2,9 +2,26 @@ package scottf;
 
 import org.junit.jupiter.api.Test;
 
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
-import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.*;
 
 public final class DigesterTests {
 
@@ -27,4 +44,143 @@ public final class DigesterTests {
         d.reset(s);
         assertEquals("yan7pwBVnC1yORqqgBfd64_qAw6q9fNA60_KRiMMooE=", d.getDigestValue());
     }
+
+    @Test
+    public void testDigesterPool() throws Exception {
+        String s = ResourceUtils.resourceAsString("digester_test_bytes_001000.txt");
+        String expected = "DZj4RnBpuEukzFIY0ueZ-xjnHY4Rt9XWn4Dh8nkNfnI=";
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+
+        DigesterPool pool = new DigesterPool(null, null, null, 2);
+        assertEquals("SHA-256", pool.getAlgorithm());
+        assertEquals(1, pool.size()); // the first clone
+        assertEquals(expected, pool.getDigestValue(s));
+        assertEquals(expected, pool.getDigestValue(bytes));
+        assertEquals(expected, pool.getDigestValue(ByteBuffer.wrap(bytes)));
+
+        ByteBuffer direct = ByteBuffer.allocateDirect(bytes.length + 10);
+        direct.position(10);
+        direct.put(bytes).position(10);
+        assertEquals(expected, pool.getDigestValue(direct));
+        assertFalse(direct.hasRemaining());
+
+        byte[] padded = new byte[bytes.length + 20];
+        System.arraycopy(bytes, 0, padded, 10, bytes.length);
+        assertEquals(expected, pool.getDigestValue(padded, 10, bytes.length));
+        assertEquals(0, pool.getMisses());
+
+        MessageDigest d1 = pool.acquire();
+        MessageDigest d2 = pool.acquire();
+        MessageDigest d3 = pool.acquire();
+        assertEquals(2, pool.getMisses());
+        d1.update(bytes); // left with state, release resets it
+        pool.release(d1);
+        pool.release(d2);
+        pool.release(d3);
+        assertEquals(2, pool.size());
+        assertEquals(1, pool.getDiscards());
+        assertArrayEquals(MessageDigest.getInstance("SHA-256").digest(bytes), pool.digest(bytes));
+
+        // concurrent use gets the same answers
+        ExecutorService es = Executors.newFixedThreadPool(4);
+        List<Future<String>> futures = new ArrayList<>();
+        for (int x = 0; x < 200; x++) {
+            futures.add(es.submit(() -> pool.getDigestValue(bytes)));
+        }
+        for (Future<String> f : futures) {
+            assertEquals(expected, f.get());
+        }
+        es.shutdown();
+        assertTrue(pool.size() <= 2);
+    }
+
+    @Test
+    public void testFilesAndChannels() throws Exception {
+        String s = ResourceUtils.resourceAsString("digester_test_bytes_100000.txt");
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        Path small = Files.createTempFile("digester", ".txt");
+        Files.write(small, bytes);
+
+        // bigger than the map threshold and not a multiple of the read buffer
+        byte[] big = new byte[Digester.MAP_THRESHOLD + Digester.READ_BUFFER_SIZE + 123];
+        new Random(7).nextBytes(big);
+        Path large = Files.createTempFile("digester", ".bin");
+        Files.write(large, big);
+        Path empty = Files.createTempFile("digester", ".empty");
+
+        try {
+            Digester d = new Digester();
+            assertEquals("yan7pwBVnC1yORqqgBfd64_qAw6q9fNA60_KRiMMooE=", d.reset(small).getDigestValue());
+            d.update("leftover");
+            MessageDigest md = MessageDigest.getInstance("SHA-256");
+            assertArrayEquals(md.digest(big), d.digest(large));
+            assertArrayEquals(md.digest(big), d.digest(Channels.newChannel(Files.newInputStream(large))));
+            assertArrayEquals(md.digest(new byte[0]), d.digest(empty));
+            assertEquals(d.reset(ByteBuffer.wrap(bytes)).getDigestValue(), d.reset(small).getDigestValue());
+
+            DigesterPool pool = new DigesterPool();
+            List<Path> paths = new ArrayList<>();
+            for (int x = 0; x < 20; x++) {
+                paths.add(x % 3 == 0 ? large : small);
+            }
+            paths.add(empty);
+            Map<Path, String> values = pool.digestAll(paths);
+            assertEquals(3, values.size());
+            assertEquals("yan7pwBVnC1yORqqgBfd64_qAw6q9fNA60_KRiMMooE=", values.get(small));
+            assertEquals(pool.getDigestValue(big), values.get(large));
+            assertEquals(pool.getDigestValue(new byte[0]), values.get(empty));
+
+            Files.delete(empty);
+            assertThrows(NoSuchFileException.class, () -> pool.digestAll(paths));
+            assertThrows(IOException.class, () -> d.digest(empty));
+        }
+        finally {
+            Files.deleteIfExists(small);
+            Files.deleteIfExists(large);
+            Files.deleteIfExists(empty);
+        }
+    }
+
+    @Test
+    public void testDigestOutput() throws Exception {
+        String s = ResourceUtils.resourceAsString("digester_test_bytes_001000.txt");
+        String expected = "DZj4RnBpuEukzFIY0ueZ-xjnHY4Rt9XWn4Dh8nkNfnI=";
+        byte[] raw = MessageDigest.getInstance("SHA-256").digest(s.getBytes(StandardCharsets.UTF_8));
+        StringBuilder hex = new StringBuilder();
+        for (byte b : raw) {
+            hex.append(String.format("%02x", b));
+        }
+
+        Digester d = new Digester();
+        assertEquals(32, d.getDigestLength());
+        byte[] buf = new byte[100];
+        assertEquals(32, d.reset(s).digestInto(buf, 5));
+        assertArrayEquals(raw, Arrays.copyOfRange(buf, 5, 37));
+
+        assertEquals(44, d.reset(s).getDigestValue(buf, 10));
+        assertEquals(expected, new String(buf, 10, 44, StandardCharsets.ISO_8859_1));
+        assertEquals(64, d.reset(s).getDigestHex(buf, 2));
+        assertEquals(hex.toString(), new String(buf, 2, 64, StandardCharsets.ISO_8859_1));
+        assertEquals(hex.toString(), d.reset(s).getDigestHex());
+
+        ByteArrayBuilder bab = new ByteArrayBuilder().append("digest=");
+        d.reset(s).appendDigestValue(bab).reset(s).appendDigestHex(bab.append((byte)' '));
+        assertEquals("digest=" + expected + " " + hex, bab.toString());
+
+        // too small doesn't finish the digest
+        d.reset(s);
+        assertThrows(IllegalArgumentException.class, () -> d.getDigestValue(new byte[43], 0));
+        assertThrows(IllegalArgumentException.class, () -> d.getDigestHex(new byte[70], 7));
+        assertThrows(IllegalArgumentException.class, () -> d.digestInto(new byte[31], 0));
+        assertEquals(expected, d.getDigestValue());
+
+        // other encoders and algorithms
+        Digester basic = new Digester(null, null, Base64.getEncoder().withoutPadding());
+        assertEquals(expected.replace('-', '+').replace('_', '/').replace("=", ""), basic.reset(s).getDigestValue());
+        Digester sha512 = new Digester("SHA-512");
+        assertEquals(64, sha512.getDigestLength());
+        assertEquals(Base64.getUrlEncoder().encodeToString(MessageDigest.getInstance("SHA-512").digest(s.getBytes(StandardCharsets.UTF_8))),
+            sha512.reset(s).getDigestValue());
+        assertEquals(128, sha512.reset(s).getDigestHex().length());
+    }
 }
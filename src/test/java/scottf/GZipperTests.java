@@ -0,0 +1,309 @@
+package scottf;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.ZipException;
+
+import static java.nio.charset.StandardCharsets.ISO_8859_1;
+import static org.junit.jupiter.api.Assertions.*;
+
+public final class GZipperTests {
+
+    private static byte[] testData(int len) {
+        // compressible, but not trivially
+        Random r = new Random(len);
+        ByteArrayBuilder bab = new ByteArrayBuilder(len);
+        while (bab.length() < len) {
+            bab.append("key").append(r.nextInt(1000)).append((byte)'=').append(r.nextLong()).append((byte)'\n');
+        }
+        byte[] bytes = new byte[len];
+        System.arraycopy(bab.internalArray(), 0, bytes, 0, len);
+        return bytes;
+    }
+
+    private static byte[] jdkZip(byte[] bytes) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (GZIPOutputStream gzos = new GZIPOutputStream(out)) {
+            gzos.write(bytes);
+        }
+        return out.toByteArray();
+    }
+
+    @Test
+    public void testSameAsGZIPOutputStream() throws IOException {
+        GZipper gz = new GZipper();
+        for (int len : new int[]{0, 1, 100, 10_000, 100_000}) {
+            byte[] data = testData(len);
+            byte[] zipped = gz.clear().zip(data, 0, len / 2).zip(data, len / 2, len - len / 2).finish();
+            assertArrayEquals(jdkZip(data), zipped);
+            assertArrayEquals(data, GZipper.unzip(zipped));
+        }
+        assertThrows(IOException.class, () -> gz.zip(new byte[1]));
+        byte[] last = gz.finish();
+        assertArrayEquals(last, gz.finish()); // finishing again returns the same bytes
+        gz.close();
+        assertArrayEquals(last, gz.finish());
+    }
+
+    @Test
+    public void testPooled() throws IOException {
+        ZlibPool pool = new ZlibPool(Deflater.DEFAULT_COMPRESSION, 1);
+        GZipper gz1 = new GZipper(pool);
+        GZipper gz2 = new GZipper(pool);
+        assertEquals(2, pool.getMisses());
+
+        byte[] data = testData(50_000);
+        byte[] zipped = gz1.zip(data).finish();
+        assertArrayEquals(jdkZip(data), zipped);
+        assertEquals(1, pool.size());
+        gz2.zip(data).finish(); // pool already has one, this one is ended
+        assertEquals(1, pool.getDiscards());
+
+        gz1.clear(); // takes the pooled deflater back
+        assertEquals(1, pool.getHits());
+        assertArrayEquals(zipped, gz1.zip(data).finish());
+
+        assertArrayEquals(data, GZipper.unzip(zipped, pool));
+        assertArrayEquals(data, GZipper.unzip(zipped, pool));
+        assertEquals(1, pool.getMisses() - 2); // only the first unzip made an inflater
+        pool.close();
+        assertEquals(0, pool.size());
+    }
+
+    @Test
+    public void testPooledUnzipMembersAndHeaders() throws IOException {
+        ZlibPool pool = new ZlibPool();
+        byte[] one = "first member ".getBytes(ISO_8859_1);
+        byte[] two = testData(20_000);
+
+        // second member has a file name and comment in its header, like gzip -N would write
+        byte[] zipped2 = jdkZip(two);
+        ByteArrayBuilder withName = new ByteArrayBuilder()
+            .append(zipped2, 0, 3)
+            .append((byte)(8 | 16))
+            .append(zipped2, 4, 6)
+            .append("name.txt").append((byte)0)
+            .append("a comment").append((byte)0)
+            .append(zipped2, 10, zipped2.length - 10);
+
+        ByteArrayBuilder both = new ByteArrayBuilder().append(jdkZip(one)).append(withName);
+        byte[] expected = new ByteArrayBuilder().append(one).append(two).toByteArray();
+        assertArrayEquals(expected, GZipper.unzip(both.toByteArray(), pool));
+
+        byte[] corrupt = jdkZip(two);
+        corrupt[corrupt.length - 5]++; // crc
+        assertThrows(ZipException.class, () -> GZipper.unzip(corrupt, pool));
+        assertThrows(ZipException.class, () -> GZipper.unzip("not gzip at all".getBytes(), pool));
+        byte[] truncated = new byte[zipped2.length - 4];
+        System.arraycopy(zipped2, 0, truncated, 0, truncated.length);
+        assertThrows(IOException.class, () -> GZipper.unzip(truncated, pool));
+        assertEquals(0, pool.getDiscards());
+    }
+
+    // hands out at most a few bytes per read, like a slow network
+    private static ReadableByteChannel trickle(byte[] bytes) {
+        ReadableByteChannel ch = Channels.newChannel(new ByteArrayInputStream(bytes));
+        return new ReadableByteChannel() {
+            int reads;
+
+            @Override
+            public int read(ByteBuffer dst) throws IOException {
+                ByteBuffer small = ByteBuffer.allocate(Math.min(dst.remaining(), 1 + reads++ % 5));
+                int n = ch.read(small);
+                small.flip();
+                dst.put(small);
+                return n;
+            }
+
+            @Override
+            public boolean isOpen() {
+                return ch.isOpen();
+            }
+
+            @Override
+            public void close() throws IOException {
+                ch.close();
+            }
+        };
+    }
+
+    @Test
+    public void testChannels() throws IOException {
+        byte[] data = testData(300_000);
+        byte[] expected = jdkZip(data);
+        Path in = Files.createTempFile("gz", ".txt");
+        Path zipped = Files.createTempFile("gz", ".gz");
+        Path out = Files.createTempFile("gz", ".out");
+        try {
+            Files.write(in, data);
+            for (boolean map : new boolean[]{false, true}) {
+                assertEquals(data.length, GZipper.zip(in, zipped, 1024, map));
+                assertArrayEquals(expected, Files.readAllBytes(zipped));
+            }
+            assertEquals(data.length, GZipper.zip(in, zipped));
+            assertEquals(data.length, GZipper.unzip(zipped, out));
+            assertArrayEquals(data, Files.readAllBytes(out));
+        }
+        finally {
+            Files.delete(in);
+            Files.delete(zipped);
+            Files.delete(out);
+        }
+
+        // two members, the second with a file name, read a few bytes at a time through small buffers
+        byte[] one = "first member ".getBytes(ISO_8859_1);
+        ByteArrayBuilder withName = new ByteArrayBuilder()
+            .append(expected, 0, 3)
+            .append((byte)8)
+            .append(expected, 4, 6)
+            .append("name.txt").append((byte)0)
+            .append(expected, 10, expected.length - 10);
+        byte[] both = new ByteArrayBuilder().append(jdkZip(one)).append(withName).toByteArray();
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        assertEquals(one.length + data.length, GZipper.unzip(trickle(both), Channels.newChannel(baos), 100));
+        assertArrayEquals(new ByteArrayBuilder().append(one).append(data).toByteArray(), baos.toByteArray());
+
+        ByteArrayOutputStream zipOut = new ByteArrayOutputStream();
+        assertEquals(data.length, GZipper.zip(trickle(data), Channels.newChannel(zipOut), 100));
+        assertArrayEquals(expected, zipOut.toByteArray());
+
+        byte[] truncated = new byte[expected.length - 3];
+        System.arraycopy(expected, 0, truncated, 0, truncated.length);
+        assertThrows(IOException.class, () -> GZipper.unzip(trickle(truncated), Channels.newChannel(new ByteArrayOutputStream())));
+        assertThrows(IllegalArgumentException.class, () -> GZipper.unzip(trickle(expected), Channels.newChannel(new ByteArrayOutputStream()), 10));
+    }
+
+    @Test
+    public void testUnzipReadsToTheEnd() throws IOException {
+        byte[] data = testData(200_000);
+        byte[] one = "first member ".getBytes(ISO_8859_1);
+        byte[] both = new ByteArrayBuilder().append(jdkZip(one)).append(jdkZip(data)).toByteArray();
+        byte[] expected = new ByteArrayBuilder().append(one).append(data).toByteArray();
+
+        assertArrayEquals(data, GZipper.unzip(jdkZip(data)));
+        assertArrayEquals(data, GZipper.unzip(jdkZip(data), 10)); // the trailer size wins over the projection
+        assertArrayEquals(expected, GZipper.unzip(both));
+        assertArrayEquals(new byte[0], GZipper.unzip(jdkZip(new byte[0])));
+
+        // short reads from the source are not the end
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        GZipper.unzip(Channels.newInputStream(trickle(both)), out, 1024);
+        assertArrayEquals(expected, out.toByteArray());
+        out.reset();
+        GZipper.unzip(both, out);
+        assertArrayEquals(expected, out.toByteArray());
+
+        // a trailer with a wrong size only affects the starting size, the result is still checked
+        byte[] wrongSize = jdkZip(data);
+        wrongSize[wrongSize.length - 1] = 0x7f;
+        assertThrows(ZipException.class, () -> GZipper.unzip(wrongSize));
+    }
+
+    @Test
+    public void testUnzipIgnoresTrailingBytes() throws IOException {
+        byte[] data = testData(50_000);
+        byte[] one = "first member ".getBytes(ISO_8859_1);
+        byte[] expected = new ByteArrayBuilder().append(one).append(data).toByteArray();
+        byte[][] trailers = {new byte[512], "junk after the end".getBytes(ISO_8859_1), {0x1f}, {0x1f, (byte)0x8b, 8, 0}};
+        ZlibPool pool = new ZlibPool();
+        for (byte[] trailing : trailers) {
+            byte[] padded = new ByteArrayBuilder().append(jdkZip(one)).append(jdkZip(data)).append(trailing).toByteArray();
+            assertArrayEquals(expected, jdkUnzip(padded));
+            assertArrayEquals(expected, GZipper.unzip(padded));
+            assertArrayEquals(expected, GZipper.unzip(padded, pool));
+
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            GZipper.unzip(padded, out);
+            assertArrayEquals(expected, out.toByteArray());
+            out.reset();
+            GZipper.unzip(Channels.newInputStream(trickle(padded)), out, 1024);
+            assertArrayEquals(expected, out.toByteArray());
+        }
+        pool.close();
+
+        // the first member still has to be gzip
+        assertThrows(ZipException.class, () -> GZipper.unzip(new byte[512]));
+        assertThrows(ZipException.class, () -> GZipper.unzip(new byte[512], new ByteArrayOutputStream()));
+    }
+
+    private static byte[] jdkUnzip(byte[] bytes) throws IOException {
+        try (GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(bytes))) {
+            return in.readAllBytes();
+        }
+    }
+
+    @Test
+    public void testAdaptive() throws IOException {
+        byte[] random = new byte[100_000];
+        new Random(1).nextBytes(random);
+        byte[] text = testData(100_000);
+        byte[] mixed = new byte[100_000]; // 100 values, about 6.6 bits
+        Random r = new Random(2);
+        for (int x = 0; x < mixed.length; x++) {
+            mixed[x] = (byte)r.nextInt(100);
+        }
+
+        assertEquals(GZipper.Level.STORE, GZipper.chooseLevel(random, 0, GZipper.ADAPTIVE_SAMPLE_SIZE));
+        assertEquals(GZipper.Level.FAST, GZipper.chooseLevel(mixed, 0, GZipper.ADAPTIVE_SAMPLE_SIZE));
+        assertEquals(GZipper.Level.DEFAULT, GZipper.chooseLevel(text, 0, GZipper.ADAPTIVE_SAMPLE_SIZE));
+        assertEquals(0, GZipper.entropy(new byte[10], 0, 10));
+        assertEquals(0, GZipper.entropy(new byte[0], 0, 0));
+
+        ZlibPool pool = new ZlibPool(Deflater.DEFAULT_COMPRESSION, 1);
+        GZipper gz = new GZipper(pool, true);
+        assertNull(gz.getLevel());
+        assertTrue(Double.isNaN(gz.getRatio()));
+
+        // random data is stored, it grows by just the block headers
+        byte[] zipped = gz.zip(random, 0, 1000).zip(random, 1000, random.length - 1000).finish();
+        assertEquals(GZipper.Level.STORE, gz.getLevel());
+        assertTrue(zipped.length < random.length + 100);
+        assertEquals((double)zipped.length / random.length, gz.getRatio());
+        assertArrayEquals(random, GZipper.unzip(zipped));
+
+        zipped = gz.clear().zip(mixed).finish();
+        assertEquals(GZipper.Level.FAST, gz.getLevel());
+        assertArrayEquals(mixed, GZipper.unzip(zipped));
+
+        // a first call much bigger than a sample only holds back the sample, the rest is deflated straight away
+        byte[] big = new byte[1_000_000];
+        System.arraycopy(random, 0, big, 0, GZipper.ADAPTIVE_SAMPLE_SIZE);
+        System.arraycopy(testData(big.length), 0, big, GZipper.ADAPTIVE_SAMPLE_SIZE, big.length - GZipper.ADAPTIVE_SAMPLE_SIZE);
+        zipped = gz.clear().zip(big).finish();
+        assertEquals(GZipper.Level.STORE, gz.getLevel()); // decided from the random sample only
+        assertArrayEquals(big, GZipper.unzip(zipped));
+        assertEquals(GZipper.ADAPTIVE_SAMPLE_SIZE, gz.sampleCapacity());
+        zipped = gz.clear().zip(text, 0, 1000).zip(text, 1000, text.length - 1000).finish();
+        assertEquals(GZipper.Level.DEFAULT, gz.getLevel());
+        assertArrayEquals(jdkZip(text), zipped);
+        assertEquals(GZipper.ADAPTIVE_SAMPLE_SIZE, gz.sampleCapacity());
+
+        // less than a sample is decided on finish
+        zipped = gz.clear().zip(text, 0, 1000).finish();
+        assertEquals(GZipper.Level.DEFAULT, gz.getLevel());
+        assertArrayEquals(jdkZip(Arrays.copyOf(text, 1000)), zipped);
+        assertTrue(gz.getRatio() < 0.6);
+
+        // the pooled deflater went back at the pool's level
+        gz.clear().zip(random).finish();
+        assertArrayEquals(jdkZip(text), new GZipper(pool).zip(text).finish());
+
+        // not adaptive doesn't choose
+        GZipper plain = new GZipper(false);
+        plain.zip(random).finish();
+        assertNull(plain.getLevel());
+    }
+}
@@ -0,0 +1,74 @@
+package scottf;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+import static java.nio.charset.StandardCharsets.ISO_8859_1;
+import static org.junit.jupiter.api.Assertions.*;
+
+public final class Lz4ZipperTests {
+
+    private static byte[] text(int len) {
+        Random r = new Random(len);
+        ByteArrayBuilder bab = new ByteArrayBuilder(len + 64);
+        while (bab.length() < len) {
+            bab.append("{\"id\":").append(r.nextInt(1000)).append(",\"name\":\"item").append(r.nextInt(50)).append("\"}\n");
+        }
+        return Arrays.copyOf(bab.internalArray(), len);
+    }
+
+    @Test
+    public void testRoundTrip() throws IOException {
+        Lz4Zipper lz = new Lz4Zipper();
+        byte[] random = new byte[70_000];
+        new Random(3).nextBytes(random);
+        byte[] run = new byte[100_000];
+        Arrays.fill(run, (byte)'a');
+        byte[][] inputs = {new byte[0], "short".getBytes(ISO_8859_1), "0123456789abc".getBytes(ISO_8859_1),
+            text(100), text(200_000), random, run};
+        for (byte[] input : inputs) {
+            byte[] zipped = lz.clear().zip(input).finish();
+            assertArrayEquals(input, Lz4Zipper.unzip(zipped));
+            assertTrue(zipped.length <= Lz4Zipper.maxCompressedLength(input.length) + 4);
+        }
+
+        // compresses repetitive data well, and incompressible data barely grows
+        assertTrue(lz.clear().zip(text(200_000)).finish().length < 200_000 / 3);
+        assertTrue(lz.clear().zip(run).finish().length < 500);
+        assertTrue(lz.clear().zip(random).finish().length < random.length + random.length / 255 + 20);
+
+        // pieces and builders, same as one shot
+        byte[] data = text(50_000);
+        byte[] oneShot = lz.clear().zip(data).finish();
+        assertArrayEquals(oneShot, lz.clear().zip(data, 0, 10).zip(new ByteArrayBuilder().append(data, 10, 40_000)).zip(data, 40_010, 9_990).finish());
+        ByteArrayBuilder out = new ByteArrayBuilder().append("prefix");
+        assertEquals(oneShot.length, lz.compress(data, 0, data.length, out));
+        assertArrayEquals(oneShot, Arrays.copyOfRange(out.internalArray(), 6, out.length()));
+    }
+
+    @Test
+    public void testBlockFormat() throws IOException {
+        // literal 'a', match offset 1 length 5, then 5 literal 'a's, from the LZ4 block format description
+        byte[] block = {0x11, 'a', 0x01, 0x00, 0x50, 'a', 'a', 'a', 'a', 'a'};
+        byte[] dest = new byte[11];
+        Lz4Zipper.decompressBlock(block, 0, block.length, dest, 0, 11);
+        assertEquals("aaaaaaaaaaa", new String(dest, ISO_8859_1));
+
+        assertThrows(IOException.class, () -> Lz4Zipper.decompressBlock(block, 0, block.length, new byte[12], 0, 12));
+        byte[] badOffset = {0x11, 'a', 0x02, 0x00, 0x50, 'a', 'a', 'a', 'a', 'a'};
+        assertThrows(IOException.class, () -> Lz4Zipper.decompressBlock(badOffset, 0, badOffset.length, new byte[11], 0, 11));
+        assertThrows(IOException.class, () -> Lz4Zipper.decompressBlock(block, 0, 3, new byte[11], 0, 11));
+        assertThrows(IOException.class, () -> Lz4Zipper.unzip(new byte[2]));
+
+        // a huge length in a tiny input is rejected before anything is allocated
+        byte[] hostile = {(byte)0xff, (byte)0xff, (byte)0xff, 0x7f, 0x10, 0, 0, 0};
+        assertThrows(IOException.class, () -> Lz4Zipper.unzip(hostile));
+
+        // the bound still allows data that compresses as well as it can
+        byte[] zeros = new byte[1 << 20];
+        assertArrayEquals(zeros, Lz4Zipper.unzip(new Lz4Zipper().zip(zeros).finish()));
+    }
+}
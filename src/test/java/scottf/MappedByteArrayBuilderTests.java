@@ -0,0 +1,72 @@
+package scottf;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static java.nio.charset.StandardCharsets.ISO_8859_1;
+import static org.junit.jupiter.api.Assertions.*;
+
+public final class MappedByteArrayBuilderTests {
+
+    @Test
+    public void testTargetFile() throws IOException {
+        Path path = Files.createTempFile("mbab", ".txt");
+        try {
+            StringBuilder expected = new StringBuilder();
+            try (MappedByteArrayBuilder mbab = new MappedByteArrayBuilder(path, 16)) {
+                assertEquals(path, mbab.getPath());
+                assertEquals(16, mbab.getRegionSize());
+                for (int x = 0; x < 100; x++) {
+                    mbab.append("line ").append(x).append((byte)'\n');
+                    expected.append("line ").append(x).append('\n');
+                }
+                mbab.append("0123456789abcdefghijklmnopqrstuvwxyz".getBytes(), 2, 30)
+                    .append(new ByteArrayBuilder().append("bab"));
+                expected.append("23456789abcdefghijklmnopqrstuv").append("bab");
+
+                assertEquals(expected.length(), mbab.length());
+                assertEquals(expected.toString(), new String(mbab.toByteArray(), ISO_8859_1));
+
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                assertEquals(expected.length(), mbab.writeTo(Channels.newChannel(out)));
+                assertEquals(expected.toString(), out.toString(ISO_8859_1.name()));
+
+                ByteArrayBuilder bab = new ByteArrayBuilder();
+                assertEquals(expected.length(), mbab.appendTo(bab));
+                assertEquals(expected.toString(), bab.toString());
+
+                mbab.force();
+            }
+            // truncated to the actual length, not the mapped regions
+            assertEquals(expected.length(), Files.size(path));
+            assertEquals(expected.toString(), new String(Files.readAllBytes(path), ISO_8859_1));
+        }
+        finally {
+            Files.deleteIfExists(path);
+        }
+    }
+
+    @Test
+    public void testTempFile() throws IOException {
+        MappedByteArrayBuilder mbab = new MappedByteArrayBuilder();
+        Path path = mbab.getPath();
+        mbab.append("temp").putLong(Long.MAX_VALUE);
+        assertEquals(12, mbab.length());
+
+        // every appender method stays fluent and matches ByteArrayBuilder
+        mbab.putInt(1).putVarint(300).appendHex(0xab).append(-42).append(2.5, 1).putLengthPrefixed(new byte[]{7});
+        ByteArrayBuilder expected = new ByteArrayBuilder().append("temp").putLong(Long.MAX_VALUE)
+            .putInt(1).putVarint(300).appendHex(0xab).append(-42).append(2.5, 1).putLengthPrefixed(new byte[]{7});
+        assertArrayEquals(expected.toByteArray(), mbab.toByteArray());
+        assertTrue(Files.exists(path));
+        mbab.close();
+        mbab.close(); // ok to close twice
+        assertFalse(Files.exists(path));
+        assertThrows(IllegalStateException.class, () -> mbab.append((byte)1));
+    }
+}
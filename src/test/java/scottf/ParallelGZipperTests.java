@@ -0,0 +1,93 @@
+package scottf;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public final class ParallelGZipperTests {
+
+    private static byte[] gunzip(byte[] zipped) throws IOException {
+        try (GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(zipped))) {
+            return in.readAllBytes();
+        }
+    }
+
+    private static byte[] testData(int len) {
+        Random r = new Random(len);
+        ByteArrayBuilder bab = new ByteArrayBuilder(len + 64);
+        while (bab.length() < len) {
+            bab.append("record ").append(r.nextInt(5000)).append(" value=").append(r.nextInt()).append((byte)'\n');
+        }
+        byte[] bytes = new byte[len];
+        System.arraycopy(bab.internalArray(), 0, bytes, 0, len);
+        return bytes;
+    }
+
+    @Test
+    public void testCrc32Combine() {
+        byte[] data = testData(10_000);
+        CRC32 all = new CRC32();
+        all.update(data);
+        for (int split : new int[]{0, 1, 4999, 10_000}) {
+            CRC32 a = new CRC32();
+            a.update(data, 0, split);
+            CRC32 b = new CRC32();
+            b.update(data, split, data.length - split);
+            assertEquals(all.getValue(), ParallelGZipper.crc32Combine(a.getValue(), b.getValue(), data.length - split));
+        }
+    }
+
+    @Test
+    public void testZip() throws IOException {
+        ForkJoinPool fjp = new ForkJoinPool(3);
+        try (ParallelGZipper pgz = new ParallelGZipper(fjp, 32 * 1024, Deflater.DEFAULT_COMPRESSION)) {
+            assertEquals(32 * 1024, pgz.getBlockSize());
+            // empty, less than a block, exactly blocks, lots of blocks with more in flight than the pool
+            for (int len : new int[]{0, 100, 64 * 1024, 1_000_000}) {
+                byte[] data = testData(len);
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                assertEquals(len, pgz.zip(new ByteArrayInputStream(data), out));
+                byte[] zipped = out.toByteArray();
+                assertArrayEquals(data, gunzip(zipped));
+                assertArrayEquals(data, GZipper.unzip(zipped, new ZlibPool()));
+                if (len == 1_000_000) {
+                    // priming with the previous block keeps the ratio close to single threaded
+                    int single = new GZipper().zip(data).finish().length;
+                    assertTrue(zipped.length < single * 1.05);
+                }
+            }
+
+            // closing ends the pooled deflaters, the next zip starts a fresh pool
+            pgz.close();
+            byte[] data = testData(100_000);
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            pgz.zip(new ByteArrayInputStream(data), out);
+            assertArrayEquals(data, gunzip(out.toByteArray()));
+        }
+        finally {
+            fjp.shutdown();
+        }
+        assertThrows(IllegalArgumentException.class, () -> new ParallelGZipper(ForkJoinPool.commonPool(), 1000, 6));
+    }
+
+    @Test
+    public void testZipFile() throws IOException {
+        File f = Files.createTempFile("pgz", ".txt").toFile();
+        try {
+            byte[] data = testData(300_000);
+            Files.write(f.toPath(), data);
+            assertArrayEquals(data, gunzip(GZipper.zipParallel(f)));
+        }
+        finally {
+            assertTrue(f.delete());
+        }
+    }
+}
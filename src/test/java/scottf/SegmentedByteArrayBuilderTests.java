@@ -0,0 +1,118 @@
+package scottf;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.Pipe;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import static java.nio.charset.StandardCharsets.ISO_8859_1;
+import static org.junit.jupiter.api.Assertions.*;
+
+public final class SegmentedByteArrayBuilderTests {
+
+    @Test
+    public void testAppendsAcrossChunks() {
+        SegmentedByteArrayBuilder sbab = new SegmentedByteArrayBuilder(4);
+        assertEquals(0, sbab.chunkCount());
+        sbab.append("abc")
+            .append((byte)'d')
+            .append("efghij".getBytes())
+            .append((String)null)
+            .append((CharBuffer)null)
+            .append(CharBuffer.wrap("xyz"))
+            .append(1234567890123L)
+            .append(-42)
+            .appendUnsigned(-1L)
+            .appendPadded(-7, 3)
+            .appendHex(255, 4)
+            .append(2.345, 2);
+        String expected = "abcdefghijnullnullxyz1234567890123-4218446744073709551615-00700ff2.35";
+        assertEquals(expected, sbab.toString());
+        assertEquals(expected.length(), sbab.length());
+        assertEquals((expected.length() + 3) / 4, sbab.chunkCount());
+
+        StringBuilder sb = new StringBuilder();
+        for (ByteBuffer bb : sbab.toByteBuffers()) {
+            sb.append(new String(bb.array(), bb.position(), bb.remaining(), ISO_8859_1));
+        }
+        assertEquals(expected, sb.toString());
+
+        sbab.clear();
+        assertEquals(0, sbab.length());
+        assertEquals(0, sbab.chunkCount());
+        assertEquals("", sbab.toString());
+        sbab.append("again");
+        assertEquals("again", sbab.toString());
+    }
+
+    @Test
+    public void testInterop() {
+        SegmentedByteArrayBuilder sbab = new SegmentedByteArrayBuilder(3);
+        sbab.append(new ByteArrayBuilder().append("hello"))
+            .append(new ByteArrayBuilder(1, 1, ISO_8859_1, true).append(" world"))
+            .append((ByteArrayBuilder)null);
+        assertEquals("hello world", sbab.toString());
+
+        sbab.append(sbab);
+        assertEquals("hello worldhello world", sbab.toString());
+
+        ByteArrayBuilder bab = new ByteArrayBuilder().append("[").append(sbab).append("]");
+        assertEquals("[hello worldhello world]", bab.toString());
+
+        // every appender method stays fluent and matches ByteArrayBuilder
+        SegmentedByteArrayBuilder binary = new SegmentedByteArrayBuilder(5)
+            .putShort((short)1).putShortLE((short)2).putInt(3).putIntLE(4).putLong(5).putLongLE(6)
+            .putDouble(1.5).putDoubleLE(2.5).putVarint(300).putZigZag(-3)
+            .putLengthPrefixed(new byte[]{7, 8}).putLengthPrefixed(new byte[]{9, 10, 11}, 1, 2)
+            .appendHex(0xab).appendHex(0xcdL).append("x", ISO_8859_1).append(CharBuffer.wrap("y"), ISO_8859_1);
+        ByteArrayBuilder expected = new ByteArrayBuilder()
+            .putShort((short)1).putShortLE((short)2).putInt(3).putIntLE(4).putLong(5).putLongLE(6)
+            .putDouble(1.5).putDoubleLE(2.5).putVarint(300).putZigZag(-3)
+            .putLengthPrefixed(new byte[]{7, 8}).putLengthPrefixed(new byte[]{9, 10, 11}, 1, 2)
+            .appendHex(0xab).appendHex(0xcdL).append("x", ISO_8859_1).append(CharBuffer.wrap("y"), ISO_8859_1);
+        assertArrayEquals(expected.toByteArray(), binary.toByteArray());
+
+        byte[] target = new byte[sbab.length() + 1];
+        assertEquals(sbab.length(), sbab.copyTo(target, 1));
+        assertEquals("hello worldhello world", new String(target, 1, sbab.length(), ISO_8859_1));
+    }
+
+    @Test
+    public void testGatheringWrite() throws IOException {
+        SegmentedByteArrayBuilder sbab = new SegmentedByteArrayBuilder(16);
+        StringBuilder expected = new StringBuilder();
+        for (int x = 0; x < 100; x++) {
+            sbab.append("line ").append(x).append((byte)'\n');
+            expected.append("line ").append(x).append('\n');
+        }
+        Path path = Files.createTempFile("sbab", ".txt");
+        try {
+            try (FileChannel fc = FileChannel.open(path, StandardOpenOption.WRITE)) {
+                assertEquals(expected.length(), sbab.writeTo(fc));
+            }
+            assertEquals(expected.toString(), new String(Files.readAllBytes(path), ISO_8859_1));
+        }
+        finally {
+            Files.delete(path);
+        }
+
+        // a non-blocking channel that fills up stops the write instead of spinning
+        Pipe pipe = Pipe.open();
+        pipe.sink().configureBlocking(false);
+        SegmentedByteArrayBuilder big = new SegmentedByteArrayBuilder().append(new byte[1024 * 1024]);
+        try {
+            long written = big.writeTo(pipe.sink());
+            assertTrue(written > 0 && written < big.length());
+        }
+        finally {
+            pipe.sink().close();
+            pipe.source().close();
+        }
+    }
+}
@@ -0,0 +1,126 @@
+package scottf;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.BufferOverflowException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static java.nio.charset.StandardCharsets.ISO_8859_1;
+import static org.junit.jupiter.api.Assertions.*;
+
+public final class SharedByteLogTests {
+
+    @Test
+    public void testCommitOrderAndWrap() {
+        SharedByteLog log = new SharedByteLog(100);
+        assertEquals(128, log.capacity());
+        assertEquals(56, log.getMaxRecord());
+        assertThrows(IllegalArgumentException.class, () -> log.tryReserve(57));
+
+        SharedByteLog.Region r1 = log.reserve(5);
+        SharedByteLog.Region r2 = log.reserve(10);
+        r2.append("second", ISO_8859_1).commit();
+        assertThrows(IllegalStateException.class, r2::commit);
+        assertThrows(IllegalStateException.class, () -> r2.append((byte)1));
+
+        // r1 isn't committed, so nothing can be drained yet
+        ByteArrayBuilder out = new ByteArrayBuilder();
+        assertEquals(0, log.drainTo(out));
+
+        assertEquals(5, r1.append("first").length());
+        assertThrows(BufferOverflowException.class, () -> r1.append((byte)'!'));
+        assertEquals(0, r1.remaining());
+        r1.commit();
+        assertEquals(11, log.drainTo(out));
+        assertEquals("firstsecond", out.toString());
+
+        // 16 + 24 used, the next 48 byte record fits
+        SharedByteLog.Region r3 = log.reserve(40);
+        r3.append(1234567890L).append(" three", ISO_8859_1).commit();
+        assertNull(log.tryReserve(50)); // 64 more won't fit before the end, and the start isn't free yet
+        List<String> records = new ArrayList<>();
+        assertEquals(1, log.drain(bb -> records.add(new ByteCursor(bb).toString())));
+        assertEquals("1234567890 three", records.get(0));
+
+        // wraps to the start, the 40 bytes at the end are padding
+        SharedByteLog.Region r4 = log.reserve(50);
+        assertNull(log.tryReserve(50)); // full until drained
+        r4.append("four").commit();
+        assertEquals(1, log.drain(bb -> records.add(new ByteCursor(bb).toString())));
+        assertEquals("four", records.get(1));
+        assertNotNull(log.tryReserve(50));
+    }
+
+    @Test
+    public void testManyProducers() throws Exception {
+        SharedByteLog log = new SharedByteLog(4096);
+        int producers = 4;
+        int perProducer = 20_000;
+        AtomicReference<Throwable> error = new AtomicReference<>();
+        List<Thread> threads = new ArrayList<>();
+        for (int p = 0; p < producers; p++) {
+            int id = p;
+            Thread t = new Thread(() -> {
+                try {
+                    for (int x = 0; x < perProducer; x++) {
+                        log.reserve(24).append(id).append((byte)':').append(x).append((byte)'\n').commit();
+                    }
+                }
+                catch (Throwable t1) {
+                    error.set(t1);
+                }
+            });
+            threads.add(t);
+            t.start();
+        }
+
+        ByteArrayBuilder out = new ByteArrayBuilder();
+        boolean alive = true;
+        while (alive) {
+            alive = false;
+            for (Thread t : threads) {
+                alive |= t.isAlive();
+            }
+            log.drainTo(out);
+        }
+        log.drainTo(out);
+        assertNull(error.get());
+
+        int[] next = new int[producers];
+        ByteCursor cursor = out.reader();
+        ByteCursor line;
+        while ((line = cursor.readLine()) != null) {
+            int id = line.readAsciiInt();
+            line.skip(1);
+            assertEquals(next[id]++, line.readAsciiInt());
+        }
+        for (int n : next) {
+            assertEquals(perProducer, n);
+        }
+    }
+
+    @Test
+    public void testDrainToChannel() throws IOException {
+        SharedByteLog log = new SharedByteLog(256);
+        log.reserve(8).append("abc", ISO_8859_1).commit();
+        log.reserve(8).append("defgh", ISO_8859_1).commit();
+        Path path = Files.createTempFile("log", ".txt");
+        try {
+            try (FileChannel fc = FileChannel.open(path, StandardOpenOption.WRITE)) {
+                assertEquals(8, log.drainTo(fc));
+                assertEquals(0, log.drainTo(fc));
+            }
+            assertEquals("abcdefgh", new String(Files.readAllBytes(path), ISO_8859_1));
+        }
+        finally {
+            Files.delete(path);
+        }
+    }
+}
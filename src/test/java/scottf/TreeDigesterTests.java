@@ -0,0 +1,118 @@
+package scottf;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public final class TreeDigesterTests {
+
+    private static byte[] leaf(byte[] bytes, int off, int len) throws Exception {
+        MessageDigest md = MessageDigest.getInstance("SHA-256");
+        md.update((byte)0);
+        md.update(bytes, off, len);
+        return md.digest();
+    }
+
+    private static byte[] node(byte[] left, byte[] right) throws Exception {
+        MessageDigest md = MessageDigest.getInstance("SHA-256");
+        md.update((byte)1);
+        md.update(left);
+        md.update(right);
+        return md.digest();
+    }
+
+    @Test
+    public void testTree() throws Exception {
+        byte[] data = new byte[1000];
+        new Random(24).nextBytes(data);
+        TreeDigester td = new TreeDigester(new DigesterPool(), 300, ForkJoinPool.commonPool());
+
+        // 4 leaves, the last is 100 bytes
+        MerkleTree tree = td.digest(data);
+        assertEquals(4, tree.getLeafCount());
+        assertEquals(1000, tree.length());
+        assertEquals(100, tree.getLeafLength(3));
+        byte[] expected = node(node(leaf(data, 0, 300), leaf(data, 300, 300)), node(leaf(data, 600, 300), leaf(data, 900, 100)));
+        assertArrayEquals(expected, tree.getRoot());
+        assertArrayEquals(leaf(data, 300, 300), tree.getLeaf(1));
+
+        // 3 leaves, the last moves up unchanged
+        tree = td.digest(data, 100, 700);
+        assertEquals(3, tree.getLeafCount());
+        assertArrayEquals(node(node(leaf(data, 100, 300), leaf(data, 400, 300)), leaf(data, 700, 100)), tree.getRoot());
+
+        // empty is a single empty leaf
+        tree = td.digest(new byte[0]);
+        assertEquals(1, tree.getLeafCount());
+        assertArrayEquals(leaf(new byte[0], 0, 0), tree.getRoot());
+        assertArrayEquals(tree.getRoot(), td.digestLeaf(new byte[0], 0, 0));
+    }
+
+    @Test
+    public void testVerifyAndUpdate() throws Exception {
+        byte[] data = new byte[10_000];
+        new Random(7).nextBytes(data);
+        int leafSize = 1000;
+        DigesterPool pool = new DigesterPool();
+        TreeDigester td = new TreeDigester(pool, leafSize, new ForkJoinPool(3));
+        byte[] tampered = data.clone();
+        for (int x = 0; x < tampered.length; x += 100) {
+            tampered[x]++;
+        }
+        for (int len : new int[]{1, 1000, 1001, 5500, 7000, 10_000}) {
+            MerkleTree tree = td.digest(data, 0, len);
+            byte[] root = tree.getRoot();
+            int count = tree.getLeafCount();
+            for (int x = 0; x < count; x++) {
+                int off = x * leafSize;
+                int ll = tree.getLeafLength(x);
+                assertTrue(tree.verifyLeaf(x, data, off, ll));
+                byte[][] proof = tree.getProof(x);
+                assertTrue(MerkleTree.verifyProof(pool, root, count, x, data, off, ll, proof));
+                assertFalse(MerkleTree.verifyProof(pool, root, count, x, tampered, off, ll, proof));
+                if (count > 1) {
+                    assertFalse(MerkleTree.verifyProof(pool, root, count, x ^ 1, data, off, ll, proof));
+                    assertFalse(MerkleTree.verifyProof(pool, root, count, x, data, off, ll, Arrays.copyOf(proof, proof.length - 1)));
+                }
+            }
+            assertFalse(tree.verifyLeaf(0, tampered, 0, tree.getLeafLength(0)));
+        }
+
+        // replacing a leaf gives the same root as digesting the changed data
+        MerkleTree tree = td.digest(data);
+        byte[] changed = data.clone();
+        Arrays.fill(changed, 6000, 7000, (byte)9);
+        tree.setLeaf(6, changed, 6000, 1000);
+        assertArrayEquals(td.digest(changed).getRoot(), tree.getRoot());
+        assertTrue(tree.verifyLeaf(6, changed, 6000, 1000));
+        assertFalse(Arrays.equals(td.digest(data).getRoot(), tree.getRoot()));
+    }
+
+    @Test
+    public void testFile() throws Exception {
+        byte[] data = new byte[3 * TreeDigester.DEFAULT_LEAF_SIZE + 17];
+        new Random(3).nextBytes(data);
+        Path path = Files.createTempFile("tree", ".bin");
+        try {
+            Files.write(path, data);
+            TreeDigester td = new TreeDigester();
+            MerkleTree fromFile = td.digest(path);
+            assertEquals(4, fromFile.getLeafCount());
+            assertEquals(data.length, fromFile.length());
+            assertArrayEquals(td.digest(data).getRoot(), fromFile.getRoot());
+
+            Files.write(path, new byte[0]);
+            assertArrayEquals(td.digest(new byte[0]).getRoot(), td.digest(path).getRoot());
+        }
+        finally {
+            Files.deleteIfExists(path);
+        }
+    }
+}